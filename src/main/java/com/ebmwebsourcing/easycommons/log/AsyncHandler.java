@@ -0,0 +1,366 @@
+/**
+ * Copyright (c) 2007-2012 EBM WebSourcing, 2012-2023 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * A {@link Handler} publishing the log records asynchronously to target handlers. The records are put in a bounded
+ * ring buffer, drained in batches by a background thread that publishes them to the target handlers, so that slow
+ * handlers (files, network, ...) don't stall the logging threads.
+ * </p>
+ * <p>
+ * The source class and method of the records are inferred before being buffered, but their parameters are formatted
+ * by the target handlers on the background thread, so they must not be modified once logged.
+ * </p>
+ */
+public class AsyncHandler extends Handler {
+
+    /**
+     * What to do with a record when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * The record is dropped
+         */
+        DROP,
+        /**
+         * The logging thread waits for room in the buffer
+         */
+        BLOCK,
+        /**
+         * One record out of the sample rate is kept, waiting for room in the buffer, the other ones are dropped
+         */
+        SAMPLE
+    }
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    public static final int DEFAULT_SAMPLE_RATE = 100;
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private static final long FLUSH_TIMEOUT_MS = 5000;
+
+    // put in the buffer to stop the background thread
+    private static final LogRecord END_OF_RECORDS = new LogRecord(Level.OFF, "");
+
+    private final Handler[] targets;
+
+    private final BlockingQueue<LogRecord> buffer;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int sampleRate;
+
+    private final Thread drainer;
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    private volatile long published = 0;
+
+    // the records taken from the buffer by the background thread, published or not
+    private volatile long drained = 0;
+
+    // the records of the current batch handed to the target handlers, only used by the background thread
+    private int handed = 0;
+
+    // signaled by the background thread when a batch is published or when it stops
+    private final ReentrantLock publicationLock = new ReentrantLock();
+
+    private final Condition publication = this.publicationLock.newCondition();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Create an {@link AsyncHandler} with the {@link #DEFAULT_CAPACITY} and the {@link OverflowPolicy#BLOCK} policy
+     *
+     * @param targets
+     *            the handlers to which the records are published
+     */
+    public AsyncHandler(final Handler... targets) {
+        this(DEFAULT_CAPACITY, OverflowPolicy.BLOCK, DEFAULT_SAMPLE_RATE, targets);
+    }
+
+    /**
+     * Create an {@link AsyncHandler}
+     *
+     * @param capacity
+     *            the maximum number of records waiting to be published
+     * @param overflowPolicy
+     *            what to do with a record when the buffer is full. it cannot be null.
+     * @param sampleRate
+     *            for the {@link OverflowPolicy#SAMPLE} policy, one record out of this rate is kept when the buffer
+     *            is full
+     * @param targets
+     *            the handlers to which the records are published
+     */
+    public AsyncHandler(final int capacity, final OverflowPolicy overflowPolicy, final int sampleRate,
+            final Handler... targets) {
+        assert capacity > 0;
+        assert overflowPolicy != null;
+        assert sampleRate > 0;
+
+        this.targets = targets.clone();
+        this.buffer = new ArrayBlockingQueue<LogRecord>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = sampleRate;
+        this.setLevel(Level.ALL);
+
+        this.drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "easycommons-async-log");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Replace the handlers of a logger by an {@link AsyncHandler} publishing to them.
+     *
+     * @param logger
+     *            the logger
+     * @param capacity
+     *            the maximum number of records waiting to be published
+     * @param overflowPolicy
+     *            what to do with a record when the buffer is full
+     * @return the {@link AsyncHandler} now set on the logger
+     */
+    public static AsyncHandler install(final Logger logger, final int capacity,
+            final OverflowPolicy overflowPolicy) {
+        final Handler[] handlers = logger.getHandlers();
+        final AsyncHandler asyncHandler = new AsyncHandler(capacity, overflowPolicy, DEFAULT_SAMPLE_RATE, handlers);
+        for (final Handler handler : handlers) {
+            logger.removeHandler(handler);
+        }
+        logger.addHandler(asyncHandler);
+        return asyncHandler;
+    }
+
+    @Override
+    public void publish(final LogRecord record) {
+        if (!this.isLoggable(record)) {
+            return;
+        }
+        if (this.closed) {
+            this.dropped.incrementAndGet();
+            return;
+        }
+
+        // the caller must be inferred on the logging thread
+        record.getSourceClassName();
+
+        try {
+            if (this.buffer.offer(record)) {
+                this.enqueued.incrementAndGet();
+                return;
+            }
+            switch (this.overflowPolicy) {
+                case BLOCK:
+                    this.buffer.put(record);
+                    this.enqueued.incrementAndGet();
+                    break;
+                case SAMPLE:
+                    if (this.overflows.getAndIncrement() % this.sampleRate == 0) {
+                        this.buffer.put(record);
+                        this.enqueued.incrementAndGet();
+                    } else {
+                        this.dropped.incrementAndGet();
+                    }
+                    break;
+                default:
+                    this.dropped.incrementAndGet();
+                    break;
+            }
+        } catch (final InterruptedException e) {
+            this.dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the records buffered before this call to be published (at most 5 seconds), and flush the target
+     * handlers.
+     */
+    @Override
+    public void flush() {
+        final long target = this.enqueued.get();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT_MS);
+        this.publicationLock.lock();
+        try {
+            while (this.drained < target && this.drainer.isAlive() && remaining > 0) {
+                remaining = this.publication.awaitNanos(remaining);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.publicationLock.unlock();
+        }
+        this.flushTargets();
+    }
+
+    /**
+     * Publish the buffered records, stop the background thread and close the target handlers. It waits at most 5
+     * seconds for room in the buffer and then for the records to be published.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            // a blocked target handler must not block the closing thread forever
+            if (this.buffer.offer(END_OF_RECORDS, FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                this.drainer.join(FLUSH_TIMEOUT_MS);
+            }
+            if (!this.drainer.isAlive()) {
+                // the records put in the buffer while closing are never published
+                final List<LogRecord> unpublished = new ArrayList<LogRecord>();
+                this.buffer.drainTo(unpublished);
+                this.dropped.addAndGet(unpublished.size());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (final Handler handler : this.targets) {
+            try {
+                handler.close();
+            } catch (final Throwable e) {
+                this.reportError("Error while closing a log handler", toException(e), ErrorManager.CLOSE_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full or the handler closed, or lost by an
+     *         error of the background thread
+     */
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the number of records published to the target handlers
+     */
+    public long getPublishedCount() {
+        return this.published;
+    }
+
+    /**
+     * @return the number of records waiting to be published
+     */
+    public int getPendingCount() {
+        return this.buffer.size();
+    }
+
+    private void drain() {
+        final List<LogRecord> batch = new ArrayList<LogRecord>(MAX_BATCH_SIZE);
+        try {
+            boolean end = false;
+            while (!end) {
+                try {
+                    batch.add(this.buffer.take());
+                } catch (final InterruptedException e) {
+                    // only close() stops the background thread
+                    continue;
+                }
+                this.buffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+                end = batch.contains(END_OF_RECORDS);
+                final int records = batch.size() - (end ? 1 : 0);
+                this.handed = 0;
+                try {
+                    this.publishBatch(batch);
+                } catch (final Throwable e) {
+                    // the errors of the target handlers are reported by record, only the report may fail
+                    this.reportError("Error while publishing log records", toException(e),
+                            ErrorManager.WRITE_FAILURE);
+                }
+                // the records not handed to the target handlers are lost
+                this.dropped.addAndGet(records - this.handed);
+                this.publicationLock.lock();
+                try {
+                    // only written by this thread
+                    this.published += this.handed;
+                    this.drained += records;
+                    this.publication.signalAll();
+                } finally {
+                    this.publicationLock.unlock();
+                }
+                batch.clear();
+            }
+        } finally {
+            this.publicationLock.lock();
+            try {
+                this.publication.signalAll();
+            } finally {
+                this.publicationLock.unlock();
+            }
+        }
+    }
+
+    private void publishBatch(final List<LogRecord> batch) {
+        for (final LogRecord record : batch) {
+            if (record != END_OF_RECORDS) {
+                for (final Handler handler : this.targets) {
+                    // an error of a target handler must not stop the background thread nor the other handlers
+                    try {
+                        handler.publish(record);
+                    } catch (final Throwable e) {
+                        this.reportError("Error while publishing a log record", toException(e),
+                                ErrorManager.WRITE_FAILURE);
+                    }
+                }
+                this.handed++;
+            }
+        }
+        this.flushTargets();
+    }
+
+    private void flushTargets() {
+        for (final Handler handler : this.targets) {
+            try {
+                handler.flush();
+            } catch (final Throwable e) {
+                this.reportError("Error while flushing a log handler", toException(e), ErrorManager.FLUSH_FAILURE);
+            }
+        }
+    }
+
+    private static Exception toException(final Throwable throwable) {
+        return throwable instanceof Exception ? (Exception) throwable : new Exception(throwable);
+    }
+}
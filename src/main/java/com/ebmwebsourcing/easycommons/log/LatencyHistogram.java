@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2007-2012 EBM WebSourcing, 2012-2023 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A histogram of durations in nanoseconds, recorded without lock. As in HDR histograms, the buckets are log-linear:
+ * each power of 2 is split in 16 buckets, so a recorded value is known with a relative error below 1/16.
+ * </p>
+ * <p>
+ * A {@link Snapshot} gives the percentiles of the recorded values. It is taken without stopping the recording, so it
+ * may miss the values recorded concurrently.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    // the values below are recorded exactly, the ones above in log-linear buckets
+    private static final int LINEAR_BUCKETS = 32;
+
+    private static final int SUB_BUCKETS = LINEAR_BUCKETS / 2;
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    // enough for all the positive long values
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final String name;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Create a {@link LatencyHistogram}
+     *
+     * @param name
+     *            the name of what is measured
+     */
+    public LatencyHistogram(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param nanos
+     *            the duration in nanoseconds. A negative duration is recorded as 0.
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        this.buckets.incrementAndGet(bucketIndex(value));
+        this.total.addAndGet(value);
+
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * @return the current percentiles of the recorded durations
+     */
+    public Snapshot getSnapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long snapshotCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = this.buckets.get(i);
+            snapshotCount += counts[i];
+        }
+        return new Snapshot(this.name, counts, snapshotCount, this.total.get(), this.max.get());
+    }
+
+    /**
+     * Forget the recorded durations
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value recorded in the bucket
+     */
+    static long highestValue(final int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        final long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        final long lowest = subBucket << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * The durations recorded in a {@link LatencyHistogram} at a given time
+     */
+    public static final class Snapshot {
+
+        private final String name;
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long total;
+
+        private final long max;
+
+        private Snapshot(final String name, final long[] counts, final long count, final long total,
+                final long max) {
+            this.name = name;
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the number of recorded durations
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return the mean of the recorded durations, in nanoseconds
+         */
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.total / this.count;
+        }
+
+        /**
+         * @return the highest recorded duration, in nanoseconds
+         */
+        public long getMax() {
+            return this.max;
+        }
+
+        /**
+         * Get the duration below which a percentage of the recorded durations are
+         *
+         * @param percentile
+         *            the percentage, between 0 and 100
+         * @return the duration in nanoseconds, up to the precision of the histogram, or 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(final double percentile) {
+            assert percentile >= 0 && percentile <= 100;
+
+            if (this.count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), this.max);
+                }
+            }
+            return this.max;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + ": count=" + this.count + ", mean=" + (long) this.getMean() + "ns, p50="
+                    + this.getValueAtPercentile(50) + "ns, p90=" + this.getValueAtPercentile(90) + "ns, p99="
+                    + this.getValueAtPercentile(99) + "ns, p99.9=" + this.getValueAtPercentile(99.9) + "ns, max="
+                    + this.max + "ns";
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2007-2012 EBM WebSourcing, 2012-2023 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Limits the number of messages logged from a same call site: in each time window, the first messages of the call
+ * site are logged, then only one out of a sample rate, the other ones being suppressed. The first message logged
+ * after some suppressed ones reports how many were suppressed.
+ * </p>
+ * <p>
+ * The counters of a call site are updated without lock, so the limits are approximate when the window changes while
+ * several threads log from the same call site.
+ * </p>
+ */
+public class LogRateLimiter {
+
+    /**
+     * Returned by {@link #tryAcquire(Class, String, int)} when the message must be suppressed
+     */
+    public static final long SUPPRESSED = -1;
+
+    /**
+     * A call site of a class. The instances put in the maps are never modified, only the lookup key of each thread
+     * is reset for each lookup.
+     */
+    private static final class CallSite {
+
+        private String methodName;
+
+        private int byteCodeIndex;
+
+        CallSite() {
+        }
+
+        CallSite(final String methodName, final int byteCodeIndex) {
+            this.set(methodName, byteCodeIndex);
+        }
+
+        CallSite set(final String methodName, final int byteCodeIndex) {
+            this.methodName = methodName;
+            this.byteCodeIndex = byteCodeIndex;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.methodName.hashCode() + this.byteCodeIndex;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof CallSite)) {
+                return false;
+            }
+            final CallSite other = (CallSite) obj;
+            return this.byteCodeIndex == other.byteCodeIndex && this.methodName.equals(other.methodName);
+        }
+    }
+
+    private static final class CallSiteCounters {
+
+        final AtomicLong windowStart;
+
+        final AtomicInteger count = new AtomicInteger();
+
+        final AtomicLong suppressed = new AtomicLong();
+
+        CallSiteCounters(final long now) {
+            this.windowStart = new AtomicLong(now);
+        }
+    }
+
+    // the key reused by each thread to look the call sites up without allocation
+    private static final ThreadLocal<CallSite> LOOKUP_KEYS = ThreadLocal.withInitial(CallSite::new);
+
+    private final long windowNanos;
+
+    private final int maxPerWindow;
+
+    private final int sampleRate;
+
+    private final AtomicLong totalSuppressed = new AtomicLong();
+
+    // the counters by call site, by class so that the classes can still be unloaded
+    private final ClassValue<ConcurrentMap<CallSite, CallSiteCounters>> counters = new ClassValue<ConcurrentMap<CallSite, CallSiteCounters>>() {
+        @Override
+        protected ConcurrentMap<CallSite, CallSiteCounters> computeValue(final Class<?> type) {
+            return new ConcurrentHashMap<CallSite, CallSiteCounters>();
+        }
+    };
+
+    /**
+     * Create a {@link LogRateLimiter}
+     *
+     * @param window
+     *            the duration of the time window
+     * @param unit
+     *            the unit of the window duration
+     * @param maxPerWindow
+     *            the number of messages of a call site always logged in each window
+     * @param sampleRate
+     *            once this number of messages has been reached in a window, one message out of the sample rate is
+     *            logged. 0 to suppress all the other messages of the window.
+     */
+    public LogRateLimiter(final long window, final TimeUnit unit, final int maxPerWindow, final int sampleRate) {
+        assert window > 0;
+        assert maxPerWindow >= 0;
+        assert sampleRate >= 0;
+
+        this.windowNanos = unit.toNanos(window);
+        this.maxPerWindow = maxPerWindow;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Count a message of a call site and tell whether it must be logged.
+     *
+     * @param callerClass
+     *            the class of the call site
+     * @param methodName
+     *            the method of the call site
+     * @param byteCodeIndex
+     *            the byte code index of the call site in the method
+     * @return {@link #SUPPRESSED} if the message must be suppressed, else the number of messages of the call site
+     *         suppressed since the last logged one
+     */
+    public long tryAcquire(final Class<?> callerClass, final String methodName, final int byteCodeIndex) {
+        final ConcurrentMap<CallSite, CallSiteCounters> classCounters = this.counters.get(callerClass);
+        final long now = System.nanoTime();
+        CallSiteCounters callSiteCounters = classCounters.get(LOOKUP_KEYS.get().set(methodName, byteCodeIndex));
+        if (callSiteCounters == null) {
+            final CallSiteCounters newCounters = new CallSiteCounters(now);
+            callSiteCounters = classCounters.putIfAbsent(new CallSite(methodName, byteCodeIndex), newCounters);
+            if (callSiteCounters == null) {
+                callSiteCounters = newCounters;
+            }
+        }
+
+        final long windowStart = callSiteCounters.windowStart.get();
+        if (now - windowStart >= this.windowNanos && callSiteCounters.windowStart.compareAndSet(windowStart, now)) {
+            // only one thread opens the new window
+            callSiteCounters.count.set(0);
+        }
+
+        final int count = callSiteCounters.count.incrementAndGet();
+        if (count <= this.maxPerWindow
+                || (this.sampleRate > 0 && (count - this.maxPerWindow) % this.sampleRate == 0)) {
+            return callSiteCounters.suppressed.getAndSet(0);
+        } else {
+            callSiteCounters.suppressed.incrementAndGet();
+            this.totalSuppressed.incrementAndGet();
+            return SUPPRESSED;
+        }
+    }
+
+    /**
+     * @return the number of messages suppressed since the creation of this limiter, for all the call sites
+     */
+    public long getSuppressedCount() {
+        return this.totalSuppressed.get();
+    }
+}
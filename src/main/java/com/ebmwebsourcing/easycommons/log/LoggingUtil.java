@@ -15,7 +15,15 @@
  */
 package com.ebmwebsourcing.easycommons.log;
 
+import java.lang.StackWalker.StackFrame;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 /**
@@ -34,12 +42,35 @@ public class LoggingUtil {
 
     protected final String name;
 
+    // if not null, the records are published into it instead of being logged synchronously
+    private final AsyncHandler asyncHandler;
+
+    // if not null, limits the number of messages logged by call site
+    private volatile LogRateLimiter rateLimiter;
+
     public LoggingUtil(final Logger logger) {
         this(logger, "");
     }
 
     public LoggingUtil(final Logger logger, final String loggerName) {
+        this(logger, loggerName, null);
+    }
+
+    /**
+     * Create a {@link LoggingUtil} publishing its records asynchronously: the records logged at an enabled level and
+     * accepted by the logger filter are published into the {@link AsyncHandler} instead of the handlers of the
+     * logger.
+     * 
+     * @param logger
+     *            the logger giving the enabled levels and the filter
+     * @param loggerName
+     *            the name prefixing the messages
+     * @param asyncHandler
+     *            the {@link AsyncHandler} publishing the records, or null to log synchronously
+     */
+    public LoggingUtil(final Logger logger, final String loggerName, final AsyncHandler asyncHandler) {
         this.log = logger;
+        this.asyncHandler = asyncHandler;
 
         if ((loggerName != null) && (loggerName.trim().length() > 0)) {
             this.name = "[" + loggerName + "] ";
@@ -50,37 +81,85 @@ public class LoggingUtil {
 
     public void call() {
         if (this.isTraceEnabled()) {
-            this.log.log(Level.FINEST, this.name + "-CALL-" + classAndMethod());
+            this.emit(Level.FINEST, this.name + "-CALL-" + classAndMethod(), null, null);
         }
     }
 
     public void call(Object msg) {
         if (this.isTraceEnabled()) {
-            this.log.log(Level.FINEST, this.name + "-CALL-" + classAndMethod() + " " + msg);
+            this.emit(Level.FINEST, this.name + "-CALL-" + classAndMethod() + " " + msg, null, null);
         }
     }
 
     public void start() {
         if (this.isTraceEnabled()) {
-            this.log.log(Level.FINEST, this.name + "-START-" + classAndMethod());
+            this.emit(Level.FINEST, this.name + "-START-" + classAndMethod(), null, null);
         }
     }
 
     public void start(Object msg) {
         if (this.isTraceEnabled()) {
-            this.log.log(Level.FINEST, this.name + "-START-" + classAndMethod() + " " + msg);
+            this.emit(Level.FINEST, this.name + "-START-" + classAndMethod() + " " + msg, null, null);
+        }
+    }
+
+    /**
+     * Like {@link #start()}, and start measuring the duration of the calling method, until {@link #end(Span)} is
+     * called. The durations are recorded whatever the log level, by method, and are given by
+     * {@link #getLatencySnapshots()}.
+     * 
+     * @return the token to give to {@link #end(Span)}
+     */
+    public Span startSpan() {
+        return this.startSpan(null);
+    }
+
+    /**
+     * Like {@link #start(Object)}, and start measuring the duration of the calling method, until {@link #end(Span)}
+     * is called.
+     * 
+     * @return the token to give to {@link #end(Span)}
+     */
+    public Span startSpan(Object msg) {
+        final StackFrame caller = callerFrame();
+        final String classAndMethod = classAndMethod(caller);
+        if (this.isTraceEnabled()) {
+            this.emit(Level.FINEST, this.name + "-START-" + classAndMethod + (msg == null ? "" : " " + msg), null,
+                    null);
+        }
+        return new Span(classAndMethod, latencyHistogram(caller));
+    }
+
+    /**
+     * Record the duration of a method since {@link #startSpan()} and, at the trace level, log it.
+     * 
+     * @param span
+     *            the token returned by {@link #startSpan()}. It must be ended only once.
+     */
+    public void end(Span span) {
+        if (span == null) {
+            // a null literal message resolves to this overload
+            this.end((Object) null);
+            return;
+        }
+        final long elapsed = System.nanoTime() - span.startNanos;
+        if (span.histogram != null) {
+            span.histogram.record(elapsed);
+        }
+        if (this.isTraceEnabled()) {
+            this.emit(Level.FINEST, this.name + "-END-" + span.classAndMethod + " " + elapsed + "ns", null, null);
         }
     }
 
     public void end() {
         if (this.isTraceEnabled()) {
-            this.log.log(Level.FINEST, this.name + "-END-" + classAndMethod());
+            this.emit(Level.FINEST, this.name + "-END-" + classAndMethod(), null, null);
         }
     }
 
     public void end(Object msg) {
         if (this.isTraceEnabled()) {
-            this.log.log(Level.FINEST, this.name + "-END-" + classAndMethod() + " " + msg);
+            this.emit(Level.FINEST, this.name + "-END-" + classAndMethod() + " " + msg, null, null);
         }
     }
     
@@ -88,6 +167,26 @@ public class LoggingUtil {
         this.log(Level.FINEST, message, null);
     }
 
+    /**
+     * Log a message at the trace level, the supplier being called only if this level is enabled
+     */
+    public void trace(Supplier<?> message) {
+        this.log(Level.FINEST, message, null);
+    }
+
+    /**
+     * Log a parameterized message at the trace level, formatted only if this level is enabled
+     * 
+     * @param format
+     *            the message, with parameters as {@link java.text.MessageFormat} place holders ("{0}", "{1}", ...)
+     * @param args
+     *            the parameters of the message. If the last one is a {@link Throwable}, it is logged as the
+     *            thrown exception.
+     */
+    public void trace(String format, Object... args) {
+        this.logFormat(Level.FINEST, format, args);
+    }
+
     public void debug(Object message) {
         this.log(Level.FINE, message, null);
     }
@@ -95,11 +194,31 @@ public class LoggingUtil {
     public void debug(Object message, Throwable throwable) {
         this.log(Level.FINE, message, throwable);
     }
+
+    public void debug(Supplier<?> message) {
+        this.log(Level.FINE, message, null);
+    }
+
+    public void debug(Supplier<?> message, Throwable throwable) {
+        this.log(Level.FINE, message, throwable);
+    }
+
+    public void debug(String format, Object... args) {
+        this.logFormat(Level.FINE, format, args);
+    }
    
     public void config(Object message) {
         this.log(Level.CONFIG, message, null);
     }
 
+    public void config(Supplier<?> message) {
+        this.log(Level.CONFIG, message, null);
+    }
+
+    public void config(String format, Object... args) {
+        this.logFormat(Level.CONFIG, format, args);
+    }
+
     public void info(Object message) {
         this.log(Level.INFO, message, null);
     }
@@ -108,6 +227,18 @@ public class LoggingUtil {
         this.log(Level.INFO, message, throwable);
     }
 
+    public void info(Supplier<?> message) {
+        this.log(Level.INFO, message, null);
+    }
+
+    public void info(Supplier<?> message, Throwable throwable) {
+        this.log(Level.INFO, message, throwable);
+    }
+
+    public void info(String format, Object... args) {
+        this.logFormat(Level.INFO, format, args);
+    }
+
     public void warning(Object message) {
         this.log(Level.WARNING, message, null);
     }
@@ -116,6 +247,18 @@ public class LoggingUtil {
         this.log(Level.WARNING, message, throwable);
     }
 
+    public void warning(Supplier<?> message) {
+        this.log(Level.WARNING, message, null);
+    }
+
+    public void warning(Supplier<?> message, Throwable throwable) {
+        this.log(Level.WARNING, message, throwable);
+    }
+
+    public void warning(String format, Object... args) {
+        this.logFormat(Level.WARNING, format, args);
+    }
+
     public void error(Object message) {
         this.log(Level.SEVERE, message, null);
     }
@@ -124,19 +267,110 @@ public class LoggingUtil {
         this.log(Level.SEVERE, message, throwable);
     }
 
+    public void error(Supplier<?> message) {
+        this.log(Level.SEVERE, message, null);
+    }
+
+    public void error(Supplier<?> message, Throwable throwable) {
+        this.log(Level.SEVERE, message, throwable);
+    }
+
+    public void error(String format, Object... args) {
+        this.logFormat(Level.SEVERE, format, args);
+    }
+
     private void log(final Level level, final Object message, final Throwable throwable) {
         if (this.isLevelEnabled(level)) {
-            final String msg;
-            if (this.log.isLoggable(Level.FINER)) {
-                msg = this.name + classAndMethod() + " " + message;
+            this.doLog(level, message, null, throwable);
+        }
+    }
+
+    private void log(final Level level, final Supplier<?> message, final Throwable throwable) {
+        if (this.isLevelEnabled(level)) {
+            // a null literal message resolves to the Supplier overloads
+            this.doLog(level, message == null ? null : message.get(), null, throwable);
+        }
+    }
+
+    private void logFormat(final Level level, final String format, final Object[] args) {
+        if (this.isLevelEnabled(level)) {
+            if (args != null && args.length > 0 && args[args.length - 1] instanceof Throwable) {
+                this.doLog(level, format, Arrays.copyOf(args, args.length - 1),
+                        (Throwable) args[args.length - 1]);
             } else {
-                msg = this.name + message;
+                this.doLog(level, format, args, null);
             }
-            if (throwable != null) {
-                this.log.log(level, msg, throwable);
-            } else {
-                this.log.log(level, msg);
+        }
+    }
+
+    /**
+     * Prefix and log a message whose level has already been checked. The parameters are formatted by the
+     * {@link java.util.logging.Formatter} of the handlers, so only if the message is really written.
+     */
+    private void doLog(final Level level, final Object message, final Object[] params, final Throwable throwable) {
+        final LogRateLimiter limiter = this.rateLimiter;
+        // the stack is walked at most once, for the limiter and for the caller trace
+        StackFrame caller = null;
+        boolean walked = false;
+        long suppressed = 0;
+        if (limiter != null) {
+            caller = callerFrame();
+            walked = true;
+            if (caller != null) {
+                suppressed = limiter.tryAcquire(caller.getDeclaringClass(), caller.getMethodName(),
+                        caller.getByteCodeIndex());
+                if (suppressed == LogRateLimiter.SUPPRESSED) {
+                    return;
+                }
+            }
+        }
+
+        String msg;
+        if (this.log.isLoggable(Level.FINER)) {
+            msg = this.name + classAndMethod(walked ? caller : callerFrame()) + " " + message;
+        } else {
+            msg = this.name + message;
+        }
+        if (suppressed > 0) {
+            msg += " (" + suppressed + " similar messages suppressed)";
+        }
+        this.emit(level, msg, params, throwable);
+    }
+
+    /**
+     * Limit the number of messages logged by call site. The call, start and end traces are not limited.
+     *
+     * @param rateLimiter
+     *            the {@link LogRateLimiter}, possibly shared with other {@link LoggingUtil}s, or null to log all the
+     *            messages
+     */
+    public void setRateLimiter(final LogRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public LogRateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    private void emit(final Level level, final String msg, final Object[] params, final Throwable throwable) {
+        if (this.asyncHandler != null) {
+            final LogRecord record = new LogRecord(level, msg);
+            record.setLoggerName(this.log.getName());
+            record.setParameters(params);
+            record.setThrown(throwable);
+            if (this.log.getFilter() == null || this.log.getFilter().isLoggable(record)) {
+                this.asyncHandler.publish(record);
             }
+        } else if (params != null && params.length > 0) {
+            final LogRecord record = new LogRecord(level, msg);
+            record.setLoggerName(this.log.getName());
+            record.setParameters(params);
+            record.setThrown(throwable);
+            this.log.log(record);
+        } else if (throwable != null) {
+            this.log.log(level, msg, throwable);
+        } else {
+            this.log.log(level, msg);
         }
     }
 
@@ -179,30 +413,47 @@ public class LoggingUtil {
     // Static part
     // //////////////////////////////////////////////////////////
 
+    // the caller of the LoggingUtil method is at most a few frames below
+    private static final int MAX_CALLER_DEPTH = 8;
+
+    private static final StackWalker STACK_WALKER = StackWalker
+            .getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    // the "ClassName.methodName()" strings of the callers, by class and then by method name
+    private static final ClassValue<ConcurrentMap<String, String>> CALLER_NAMES = new ClassValue<ConcurrentMap<String, String>>() {
+        @Override
+        protected ConcurrentMap<String, String> computeValue(final Class<?> type) {
+            return new ConcurrentHashMap<String, String>();
+        }
+    };
+
     /**
-     * Create an exception and analyze it in order to find the class and method
-     * that called the LoggingUtil method.
+     * Walk the top of the stack in order to find the class and method that
+     * called the LoggingUtil method.
      * 
-     * @return
+     * @return the class and method as "ClassName.methodName()", or null if not found
      */
     private static String classAndMethod() {
-        String result = null;
-
-        // throw and Parse an exception to find in the stack
-        // the method that called the Loggingutil
-
-        Throwable t = new Throwable();
+        return classAndMethod(callerFrame());
+    }
 
-        StackTraceElement[] ste = t.getStackTrace();
+    /**
+     * @return the frame of the method that called the LoggingUtil method, or null if not found
+     */
+    private static StackFrame callerFrame() {
+        return STACK_WALKER.walk(frames -> frames.limit(MAX_CALLER_DEPTH)
+                .filter(frame -> frame.getDeclaringClass() != LoggingUtil.class).findFirst().orElse(null));
+    }
 
-        if ((ste != null) && (ste.length > 2)) {
-            StackTraceElement element = ste[2];
+    private static String classAndMethod(final StackFrame caller) {
+        if (caller == null) {
+            return null;
+        }
 
-            // If the 2nd element in the stack is this class, get the 3rd
-            if (element.getClassName().endsWith(LoggingUtil.class.getName())) {
-                element = ste[3];
-            }
-            String className = element.getClassName();
+        final ConcurrentMap<String, String> methods = CALLER_NAMES.get(caller.getDeclaringClass());
+        String result = methods.get(caller.getMethodName());
+        if (result == null) {
+            String className = caller.getClassName();
 
             // remove the package name of the ClassName
             int index = className.lastIndexOf(".");
@@ -211,11 +462,81 @@ public class LoggingUtil {
                 className = className.substring(index + 1, className.length());
             }
 
-            result = className + "." + element.getMethodName() + "()";
+            result = className + "." + caller.getMethodName() + "()";
+            methods.putIfAbsent(caller.getMethodName(), result);
         }
         return result;
     }
 
+    /**
+     * The durations of methods measured with {@link LoggingUtil#startSpan()}, recorded in a
+     * {@link LatencyHistogram} of the method
+     */
+    public static final class Span {
+
+        private final String classAndMethod;
+
+        private final LatencyHistogram histogram;
+
+        private final long startNanos;
+
+        private Span(final String classAndMethod, final LatencyHistogram histogram) {
+            this.classAndMethod = classAndMethod;
+            this.histogram = histogram;
+            this.startNanos = System.nanoTime();
+        }
+    }
+
+    // the latency histograms of the methods measured with spans, by "fully.qualified.ClassName.methodName"
+    private static final ConcurrentMap<String, LatencyHistogram> LATENCIES = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    // the same histograms, by class and then by method name, to avoid building the name on each span
+    private static final ClassValue<ConcurrentMap<String, LatencyHistogram>> CALLER_LATENCIES = new ClassValue<ConcurrentMap<String, LatencyHistogram>>() {
+        @Override
+        protected ConcurrentMap<String, LatencyHistogram> computeValue(final Class<?> type) {
+            return new ConcurrentHashMap<String, LatencyHistogram>();
+        }
+    };
+
+    private static LatencyHistogram latencyHistogram(final StackFrame caller) {
+        if (caller == null) {
+            return null;
+        }
+        final ConcurrentMap<String, LatencyHistogram> methods = CALLER_LATENCIES.get(caller.getDeclaringClass());
+        LatencyHistogram histogram = methods.get(caller.getMethodName());
+        if (histogram == null) {
+            final String name = caller.getClassName() + "." + caller.getMethodName();
+            final LatencyHistogram newHistogram = new LatencyHistogram(name);
+            histogram = LATENCIES.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+            methods.putIfAbsent(caller.getMethodName(), histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the current latencies of the methods measured with {@link #startSpan()}, by
+     *         "fully.qualified.ClassName.methodName", sorted by name
+     */
+    public static SortedMap<String, LatencyHistogram.Snapshot> getLatencySnapshots() {
+        final SortedMap<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (final LatencyHistogram histogram : LATENCIES.values()) {
+            snapshots.put(histogram.getName(), histogram.getSnapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Forget the latencies measured until now
+     */
+    public static void resetLatencies() {
+        for (final LatencyHistogram histogram : LATENCIES.values()) {
+            histogram.reset();
+        }
+    }
+
     public String getName() {
         return this.log.getName();
     }
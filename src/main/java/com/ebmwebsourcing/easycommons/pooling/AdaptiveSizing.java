@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * The settings of the adaptive sizing of a {@link GenericResourcePool}. Periodically, the pool compares
+ * the peak number of resources used and the time spent waiting for a resource during the last period:
+ * </p>
+ * <ul>
+ * <li>if the threads waited too long or almost all the resources were used, the maximum size and the
+ * number of idle resources kept ready are increased,</li>
+ * <li>if less than half of the resources were used without wait, they are decreased and the surplus of
+ * idle resources is dropped.</li>
+ * </ul>
+ * <p>
+ * The use of a pool whose maximum size does not adapt, as an unbounded pool, is compared with the resources
+ * it holds instead of its maximum size, and the resources used at the peak of a period are kept until the
+ * next adjustment, so that a burst does not destroy and create them again.
+ * </p>
+ * <p>
+ * The idle resources missing are created in background, not by the threads taking resources.
+ * </p>
+ */
+public final class AdaptiveSizing {
+
+    private static final long DEFAULT_PERIOD_MS = 1000;
+
+    private final int minIdle;
+
+    private final int maxIdle;
+
+    private final int minMaxSize;
+
+    private final int maxMaxSize;
+
+    private final long waitThresholdNanos;
+
+    private final long periodNanos;
+
+    /**
+     * Create the settings of an adaptive sizing
+     * 
+     * @param minIdle
+     *            the lowest number of idle resources kept ready
+     * @param maxIdle
+     *            the highest number of idle resources kept ready, the idle resources above are dropped,
+     *            except the ones used at the peak of the period by a pool of fixed maximum size
+     * @param minMaxSize
+     *            the lowest maximum size of the pool
+     * @param maxMaxSize
+     *            the highest maximum size of the pool
+     * @param waitThreshold
+     *            the mean wait for a resource above which the pool grows
+     * @param period
+     *            the period of the adjustments
+     * @param unit
+     *            the unit of the wait threshold and of the period
+     */
+    public AdaptiveSizing(final int minIdle, final int maxIdle, final int minMaxSize, final int maxMaxSize,
+            final long waitThreshold, final long period, final TimeUnit unit) {
+        assert minIdle >= 0;
+        assert maxIdle >= minIdle;
+        assert minMaxSize > 0;
+        assert maxMaxSize >= minMaxSize;
+        assert period > 0;
+
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.minMaxSize = minMaxSize;
+        this.maxMaxSize = maxMaxSize;
+        this.waitThresholdNanos = unit.toNanos(waitThreshold);
+        this.periodNanos = unit.toNanos(period);
+    }
+
+    /**
+     * The settings for the pools without limit (maximum size of Integer.MAX_VALUE): only the idle resources
+     * are adapted, between 1 and twice the number of processors, every second.
+     * 
+     * @return the settings of the adaptive sizing
+     */
+    public static AdaptiveSizing forUnboundedPool() {
+        return new AdaptiveSizing(1, 2 * Runtime.getRuntime().availableProcessors(), Integer.MAX_VALUE,
+                Integer.MAX_VALUE, 0, DEFAULT_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    int getMinIdle() {
+        return this.minIdle;
+    }
+
+    int getMaxIdle() {
+        return this.maxIdle;
+    }
+
+    int getMinMaxSize() {
+        return this.minMaxSize;
+    }
+
+    int getMaxMaxSize() {
+        return this.maxMaxSize;
+    }
+
+    long getWaitThresholdNanos() {
+        return this.waitThresholdNanos;
+    }
+
+    long getPeriodNanos() {
+        return this.periodNanos;
+    }
+
+    /**
+     * @return true if the maximum size of the pool does not adapt, as for an unbounded pool
+     */
+    boolean isFixedSize() {
+        return this.minMaxSize == this.maxMaxSize;
+    }
+}
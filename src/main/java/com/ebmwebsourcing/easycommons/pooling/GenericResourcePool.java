@@ -15,9 +15,26 @@
  */
 package com.ebmwebsourcing.easycommons.pooling;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A pool of resources.
@@ -30,12 +47,101 @@ import java.util.concurrent.Semaphore;
  * waits an available resource (releasing by another thread)
  *  - REJECT: if a resource is taking from the pool while there is no one anymore, an exception
  * is thrown.
+ * <p>
+ * A leak detection can be enabled with {@link #enableLeakDetection(long, TimeUnit, int)}, or for all
+ * the pools with the system properties
+ * {@code com.ebmwebsourcing.easycommons.pooling.GenericResourcePool.leakDetectionThresholdMs} and
+ * {@code com.ebmwebsourcing.easycommons.pooling.GenericResourcePool.leakDetectionSamplingRate}.
+ * </p>
+ * <p>
+ * The maximum size and the number of idle resources can be adapted to the load with
+ * {@link #setAdaptiveSizing(AdaptiveSizing)}.
+ * </p>
+ * <p>
+ * The resources are never created while the pool is locked, so a slow creation only delays the thread
+ * needing the new resource. The minimum number of resources are created in parallel at the
+ * initialization, and more idle resources can be created in background with {@link #prewarm(int)}.
+ * </p>
+ * <p>
+ * The threads that must not block take the resources with {@link #takeAsync()}: when no resource is
+ * available, the returned future is completed by the release handing its resource to the oldest
+ * asynchronous waiter.
+ * </p>
+ * <p>
+ * The resources can be checked with {@link ResourceHandler#validate(Object)} before being taken, see
+ * {@link #setTestOnBorrow(boolean)}, and periodically while idle, see
+ * {@link #setTestWhileIdlePeriod(long, TimeUnit)}. The invalid resources, and the ones whose
+ * onTake() or onRelease() throws an exception, are destroyed instead of going back to the pool.
+ * </p>
  * 
  * @author aruffie
  * @author Nicolas Oddoux - EBM WebSourcing
  */
 public class GenericResourcePool<T> {
 
+    private static final Long DEFAULT_LEAK_DETECTION_THRESHOLD_MS = Long
+            .getLong(GenericResourcePool.class.getName() + ".leakDetectionThresholdMs");
+
+    private static final int DEFAULT_LEAK_DETECTION_SAMPLING_RATE = Integer
+            .getInteger(GenericResourcePool.class.getName() + ".leakDetectionSamplingRate", 100);
+
+    private static final Logger LOG = Logger.getLogger(GenericResourcePool.class.getName());
+
+    // how long a thread waits for a permit before looking for leaked resources or adapting the size
+    private static final long WAIT_CHECK_PERIOD_MS = 100;
+
+    // the pool grows when more than this part of the resources were used during an adjustment period
+    private static final double HIGH_UTILISATION = 0.9;
+
+    // the pool shrinks when less than this part of the resources were used during an adjustment period
+    private static final double LOW_UTILISATION = 0.5;
+
+    /**
+     * The threads creating resources in background, shared by all the pools and started on demand
+     */
+    private static final class BackgroundCreation {
+
+        private static final ExecutorService EXECUTOR;
+
+        static {
+            final int threads = Runtime.getRuntime().availableProcessors();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            final Thread thread = new Thread(runnable,
+                                    "easycommons-pool-creation-" + this.count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+
+    /**
+     * A {@link Semaphore} whose number of permits can be reduced, to shrink the pool
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(final int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(final int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    // the long held resources are looked for every this number of takes
+    private static final int LEAK_CHECK_TAKES = 1024;
+
     // the list of used resources
     private List<T> usedResources;
 
@@ -43,7 +149,13 @@ public class GenericResourcePool<T> {
     private List<T> availableResources;
     
     // the semaphore to count the number of available resources
-    private Semaphore semaphore;
+    private ResizableSemaphore semaphore;
+
+    // the current maximum number of resources, changed by the adaptive sizing
+    private volatile int maxSize;
+
+    // guards the lists of resources, a monitor would pin the carrier of a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
 
     // the resource handler
     private ResourceHandler<T> resourceHandler;
@@ -51,6 +163,60 @@ public class GenericResourcePool<T> {
     // the pool policy
     private PoolPolicy poolPolicy;
 
+    // not null if the leak detection is enabled. The resources it tracks are not in usedResources.
+    private volatile LeakDetector<T> leakDetector;
+
+    private int takesSinceLeakCheck = 0;
+
+    // notified of the number of leaked resources whose permits are given back, may be null
+    private volatile IntConsumer leakReclaimListener;
+
+    // the number of resources taken and not released
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    // not null if the adaptive sizing is enabled
+    private volatile AdaptiveSizing adaptiveSizing;
+
+    // the number of idle resources to keep ready, with the adaptive sizing
+    private volatile int targetIdle;
+
+    // the statistics of the current adjustment period of the adaptive sizing
+    private final AtomicInteger peakInUse = new AtomicInteger();
+
+    private final AtomicLong takes = new AtomicLong();
+
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    private final AtomicLong waits = new AtomicLong();
+
+    private volatile long lastAdjustment = System.nanoTime();
+
+    private final AtomicBoolean adjusting = new AtomicBoolean();
+
+    // the number of resources being created in background, guarded by the lock
+    private int pendingCreations = 0;
+
+    // creates the resources in background
+    private final Executor creationExecutor;
+
+    // the asynchronous takes waiting for a resource, the oldest first, guarded by the lock
+    private final ArrayDeque<CompletableFuture<T>> asyncWaiters = new ArrayDeque<CompletableFuture<T>>();
+
+    // the number of asynchronous waiters, read without the lock on each release
+    private volatile int asyncWaiterCount = 0;
+
+    private volatile boolean testOnBorrow = false;
+
+    // once closed, the released resources are destroyed, guarded by the lock
+    private boolean closed = false;
+
+    // 0 if the idle resources are not tested
+    private volatile long testWhileIdleNanos = 0;
+
+    private volatile long lastIdleTest = System.nanoTime();
+
+    private final AtomicBoolean idleTesting = new AtomicBoolean();
+
     /**
      * Instantiate a new resource pool with specified resource handler, minimum size
      * and maximum size of the pool and pool policy
@@ -72,24 +238,524 @@ public class GenericResourcePool<T> {
      */
     public GenericResourcePool(final ResourceHandler<T> ressourceHandler, final int minSize,
             final int maxSize, final PoolPolicy poolPolicy) {
+        this(ressourceHandler, minSize, maxSize, poolPolicy, BackgroundCreation.EXECUTOR);
+    }
+
+    /**
+     * Instantiate a new resource pool with specified resource handler, minimum size
+     * and maximum size of the pool, pool policy and executor creating the resources in background
+     * 
+     * @param ressourceHandler
+     *            A {@link ResourceHandler} in order to manage resources of current pool. it
+     *            cannot be null.
+     * @param minSize
+     *            the minimum number of resources in the current pool (created in parallel at the
+     *            initialization).
+     * @param maxSize
+     *            the maximum number of resources in the current pool (limit of the
+     *            pool). It must be greater or equals to the specified minSize.
+     *            The maximum value is Integer.MAX_VALUE
+     * @param poolPolicy
+     *            the {@link PoolPolicy} to adopt when the maximum size is reached. it
+     *            cannot be null.
+     * @param creationExecutor
+     *            the {@link Executor} creating the resources in background. it cannot be null.
+     * 
+     */
+    public GenericResourcePool(final ResourceHandler<T> ressourceHandler, final int minSize,
+            final int maxSize, final PoolPolicy poolPolicy, final Executor creationExecutor) {
 
         assert ressourceHandler != null;
         assert minSize >= 0;
         assert maxSize >= minSize;
         assert poolPolicy != null;
+        assert creationExecutor != null;
         
         this.resourceHandler = ressourceHandler;
         this.poolPolicy = poolPolicy;
+        this.creationExecutor = creationExecutor;
         
-        this.semaphore = new Semaphore(maxSize);
+        this.semaphore = new ResizableSemaphore(maxSize);
+        this.maxSize = maxSize;
         this.availableResources = new ArrayList<T>();
         this.usedResources = new ArrayList<T>();
 
         /*
          * Instantiate the minimum number of resources
          */
-        for (int i = 0; i < minSize; i++) {
-            this.availableResources.add(this.resourceHandler.create());
+        this.availableResources.addAll(this.createInParallel(minSize));
+
+        if (DEFAULT_LEAK_DETECTION_THRESHOLD_MS != null) {
+            this.enableLeakDetection(DEFAULT_LEAK_DETECTION_THRESHOLD_MS, TimeUnit.MILLISECONDS,
+                    DEFAULT_LEAK_DETECTION_SAMPLING_RATE);
+        }
+    }
+
+    /**
+     * <p>
+     * Enable the leak detection: the resources taken are tracked until they are released. The resources
+     * held for longer than the threshold are logged as warnings, with the stack of the thread that took
+     * them for a sample of the takes. The resources garbage collected without being released are logged
+     * too, and their permits are given back to the pool.
+     * </p>
+     * <p>
+     * The resources taken before the leak detection is enabled are not tracked. Enabling it again only
+     * changes its settings.
+     * </p>
+     * 
+     * @param threshold
+     *            the duration above which a taken resource is reported
+     * @param unit
+     *            the unit of the threshold
+     * @param samplingRate
+     *            the stack of the thread is captured for one take out of this rate. 1 to capture it on
+     *            each take.
+     */
+    public void enableLeakDetection(final long threshold, final TimeUnit unit, final int samplingRate) {
+        this.lock.lock();
+        try {
+            if (this.leakDetector == null) {
+                this.leakDetector = new LeakDetector<T>(this.resourceHandler.getClass().getName(),
+                        unit.toNanos(threshold), samplingRate);
+            } else {
+                this.leakDetector.configure(unit.toNanos(threshold), samplingRate);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Set the listener notified of the number of leaked resources whose permits are given back to the pool,
+     * these resources being neither released nor destroyed
+     */
+    final void setLeakReclaimListener(final IntConsumer listener) {
+        this.leakReclaimListener = listener;
+    }
+
+    /**
+     * Destroy the oldest idle resources
+     * 
+     * @return the number of resources destroyed
+     */
+    final int evictIdleResources(final int count) {
+        final List<T> evicted = new ArrayList<T>();
+        this.lock.lock();
+        try {
+            while (evicted.size() < count && !this.availableResources.isEmpty()) {
+                evicted.add(this.availableResources.remove(0));
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        for (final T resource : evicted) {
+            this.destroyResource(resource);
+        }
+        return evicted.size();
+    }
+
+    /**
+     * Destroy the idle resources, and the other ones once released
+     */
+    final void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+        } finally {
+            this.lock.unlock();
+        }
+        this.evictIdleResources(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find the resources garbage collected without being released, giving back their permits to the
+     * pool, and the resources held for longer than the leak detection threshold
+     * 
+     * @return the descriptions of the resources held for longer than the threshold, empty if the leak
+     *         detection is not enabled
+     */
+    public List<String> checkLeaks() {
+        final LeakDetector<T> detector = this.leakDetector;
+        if (detector == null) {
+            return Collections.emptyList();
+        }
+        this.reclaimLeakedPermits(detector);
+        return detector.findLongHeld();
+    }
+
+    private void reclaimLeakedPermits(final LeakDetector<T> detector) {
+        final int reclaimed = detector.reclaimCollected();
+        if (reclaimed > 0) {
+            final IntConsumer listener = this.leakReclaimListener;
+            if (listener != null) {
+                listener.accept(reclaimed);
+            }
+            this.inUse.addAndGet(-reclaimed);
+            this.semaphore.release(reclaimed);
+            this.serveAsyncWaiters();
+        }
+    }
+
+    /**
+     * Create in parallel resources, one of them in the current thread
+     */
+    private List<T> createInParallel(final int count) {
+        final List<T> resources = new ArrayList<T>(count);
+        final List<CompletableFuture<T>> creations = new ArrayList<CompletableFuture<T>>(count);
+        for (int i = 1; i < count; i++) {
+            creations.add(CompletableFuture.supplyAsync(this::createResource, this.creationExecutor));
+        }
+        RuntimeException failure = null;
+        if (count > 0) {
+            try {
+                resources.add(this.createResource());
+            } catch (final RuntimeException e) {
+                failure = e;
+            }
+        }
+        // all the creations are waited for, even after a failure
+        for (final CompletableFuture<T> creation : creations) {
+            try {
+                resources.add(creation.join());
+            } catch (final CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return resources;
+    }
+
+    /**
+     * Create in background idle resources, so that the next takes do not wait for their creation. The
+     * resources that would exceed the maximum size of the pool are not created.
+     * 
+     * @param count
+     *            the number of idle resources to add
+     * @return completed when all the resources are created. A resource that could not be created is
+     *         logged and does not fail the returned future.
+     */
+    public CompletableFuture<Void> prewarm(final int count) {
+        assert count >= 0;
+
+        int created;
+        this.lock.lock();
+        try {
+            final long room = (long) this.maxSize - this.inUse.get() - this.availableResources.size()
+                    - this.pendingCreations;
+            created = (int) Math.max(0, Math.min(count, room));
+            this.pendingCreations += created;
+        } finally {
+            this.lock.unlock();
+        }
+        return this.createIdleResources(created);
+    }
+
+    /**
+     * Check the idle resources with {@link ResourceHandler#validate(Object)} before taking them
+     * 
+     * @param testOnBorrow
+     *            true to check the resources on each take
+     */
+    public void setTestOnBorrow(final boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * Check periodically the idle resources with {@link ResourceHandler#validate(Object)}. The check is
+     * started by a take once the period is over, and runs in background.
+     * 
+     * @param period
+     *            the period between two checks, 0 to disable them
+     * @param unit
+     *            the unit of the period
+     */
+    public void setTestWhileIdlePeriod(final long period, final TimeUnit unit) {
+        assert period >= 0;
+
+        this.lastIdleTest = System.nanoTime();
+        this.testWhileIdleNanos = unit.toNanos(period);
+    }
+
+    /**
+     * Adapt the size of the pool to the load, or go back to a fixed maximum size if the sizing is null
+     * 
+     * @param adaptiveSizing
+     *            the settings of the adaptive sizing, null to disable it
+     */
+    public void setAdaptiveSizing(final AdaptiveSizing adaptiveSizing) {
+        this.lock.lock();
+        try {
+            this.adaptiveSizing = adaptiveSizing;
+            if (adaptiveSizing != null) {
+                this.targetIdle = adaptiveSizing.getMinIdle();
+                this.setMaxSize(Math.max(adaptiveSizing.getMinMaxSize(),
+                        Math.min(adaptiveSizing.getMaxMaxSize(), this.maxSize)));
+                this.lastAdjustment = System.nanoTime();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (adaptiveSizing != null) {
+            this.serveAsyncWaiters();
+            this.replenish();
+        }
+    }
+
+    /**
+     * @return the current maximum number of resources of the pool
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @return the number of resources taken and not released yet
+     */
+    public int getInUseCount() {
+        return this.inUse.get();
+    }
+
+    /**
+     * @return the number of resources ready to be taken
+     */
+    public int getIdleCount() {
+        this.lock.lock();
+        try {
+            return this.availableResources.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void waitPermit(final LeakDetector<T> detector) throws InterruptedException {
+        final long start = System.nanoTime();
+        if (detector == null && this.adaptiveSizing == null) {
+            this.semaphore.acquire();
+        } else {
+            while (!this.semaphore.tryAcquire(WAIT_CHECK_PERIOD_MS, TimeUnit.MILLISECONDS)) {
+                if (detector != null) {
+                    this.checkLeaks();
+                }
+                this.adjustIfNeeded();
+            }
+        }
+        this.waits.incrementAndGet();
+        this.waitNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Adapt the size of the pool if the adjustment period is over
+     */
+    private void adjustIfNeeded() {
+        final AdaptiveSizing sizing = this.adaptiveSizing;
+        if (sizing != null && System.nanoTime() - this.lastAdjustment >= sizing.getPeriodNanos()
+                && this.adjusting.compareAndSet(false, true)) {
+            try {
+                this.adjust(sizing);
+            } finally {
+                this.adjusting.set(false);
+            }
+            // the pool may have grown
+            this.serveAsyncWaiters();
+            this.replenish();
+        }
+    }
+
+    private void adjust(final AdaptiveSizing sizing) {
+        final long periodTakes = this.takes.getAndSet(0);
+        final long periodWaits = this.waits.getAndSet(0);
+        final long periodWaitNanos = this.waitNanos.getAndSet(0);
+        final int peak = this.peakInUse.getAndSet(this.inUse.get());
+        this.lastAdjustment = System.nanoTime();
+
+        final long meanWaitNanos = periodWaitNanos / Math.max(1, periodTakes);
+        final int currentMaxSize = this.maxSize;
+
+        final List<T> dropped = new ArrayList<T>();
+        this.lock.lock();
+        try {
+            // a pool whose maximum size does not adapt, as an unbounded one, is never almost fully used:
+            // its use is compared with the resources it holds
+            final int capacity = sizing.isFixedSize()
+                    ? Math.max(1, this.inUse.get() + this.availableResources.size())
+                    : currentMaxSize;
+            final double utilisation = (double) peak / capacity;
+            if ((periodWaits > 0 && meanWaitNanos > sizing.getWaitThresholdNanos())
+                    || utilisation >= HIGH_UTILISATION) {
+                final long grown = Math.max(currentMaxSize + 1L, currentMaxSize + currentMaxSize / 2L);
+                this.setMaxSize((int) Math.min(sizing.getMaxMaxSize(), grown));
+                this.targetIdle = Math.min(sizing.getMaxIdle(), Math.max(1, this.targetIdle * 2));
+            } else if (periodWaits == 0 && utilisation < LOW_UTILISATION) {
+                final int shrunk = Math.max(peak, currentMaxSize - currentMaxSize / 4);
+                this.setMaxSize(Math.max(sizing.getMinMaxSize(), shrunk));
+                this.targetIdle = Math.max(sizing.getMinIdle(), this.targetIdle / 2);
+            }
+
+            // drop the surplus of idle resources, a pool of fixed size keeping the ones used at the peak of
+            // the period
+            final int keptIdle = sizing.isFixedSize()
+                    ? this.targetIdle + Math.max(0, peak - this.inUse.get())
+                    : Math.max(this.targetIdle, Math.min(sizing.getMaxIdle(), this.maxSize - this.inUse.get()));
+            while (this.availableResources.size() > keptIdle) {
+                dropped.add(this.availableResources.remove(this.availableResources.size() - 1));
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        for (final T resource : dropped) {
+            this.destroyResource(resource);
+        }
+    }
+
+    /**
+     * Change the maximum size, the lock being held
+     */
+    private void setMaxSize(final int newMaxSize) {
+        final int delta = newMaxSize - this.maxSize;
+        if (delta > 0) {
+            this.semaphore.release(delta);
+        } else if (delta < 0) {
+            this.semaphore.reducePermits(-delta);
+        }
+        this.maxSize = newMaxSize;
+    }
+
+    /**
+     * Create in background the idle resources missing to reach the target
+     */
+    private void replenish() {
+        // a racy read of the number of idle resources avoids locking on each take
+        if (this.adaptiveSizing == null || this.availableResources.size() >= this.targetIdle) {
+            return;
+        }
+        int missing;
+        this.lock.lock();
+        try {
+            final int idle = this.availableResources.size() + this.pendingCreations;
+            final long room = (long) this.maxSize - this.inUse.get() - idle;
+            missing = (int) Math.min(this.targetIdle - idle, room);
+            if (missing > 0) {
+                this.pendingCreations += missing;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.createIdleResources(missing);
+    }
+
+    /**
+     * Create in background resources already counted in the pending creations
+     */
+    private CompletableFuture<Void> createIdleResources(final int count) {
+        final CompletableFuture<?>[] creations = new CompletableFuture<?>[Math.max(0, count)];
+        for (int i = 0; i < creations.length; i++) {
+            creations[i] = CompletableFuture.runAsync(this::createIdleResource, this.creationExecutor);
+        }
+        return CompletableFuture.allOf(creations);
+    }
+
+    private void createIdleResource() {
+        T resource = null;
+        try {
+            resource = this.createResource();
+        } catch (final RuntimeException e) {
+            LOG.log(Level.WARNING, "Error while creating a resource with " + this.resourceHandler.getClass().getName(), e);
+        } finally {
+            boolean added = false;
+            this.lock.lock();
+            try {
+                this.pendingCreations--;
+                if (resource != null
+                        && this.inUse.get() + this.availableResources.size() < this.maxSize && !this.closed) {
+                    this.availableResources.add(resource);
+                    added = true;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            if (resource != null && !added) {
+                this.destroyResource(resource);
+            }
+        }
+    }
+
+    /**
+     * Start in background the test of the idle resources if its period is over
+     */
+    private void testIdleIfNeeded() {
+        final long period = this.testWhileIdleNanos;
+        if (period > 0 && System.nanoTime() - this.lastIdleTest >= period
+                && this.idleTesting.compareAndSet(false, true)) {
+            this.lastIdleTest = System.nanoTime();
+            try {
+                this.creationExecutor.execute(this::testIdleResources);
+            } catch (final RuntimeException e) {
+                this.idleTesting.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Validate the idle resources, one at a time so that the other ones can still be taken
+     */
+    private void testIdleResources() {
+        try {
+            int remaining = this.getIdleCount();
+            while (remaining-- > 0) {
+                T resource = null;
+                this.lock.lock();
+                try {
+                    if (!this.availableResources.isEmpty()) {
+                        // the oldest idle one, put back at the end once validated
+                        resource = this.availableResources.remove(0);
+                    }
+                } finally {
+                    this.lock.unlock();
+                }
+                if (resource == null) {
+                    return;
+                }
+                boolean valid = this.isValid(resource);
+                if (valid) {
+                    this.lock.lock();
+                    try {
+                        valid = !this.closed;
+                        if (valid) {
+                            this.availableResources.add(resource);
+                        }
+                    } finally {
+                        this.lock.unlock();
+                    }
+                }
+                if (!valid) {
+                    this.destroyResource(resource);
+                }
+            }
+        } finally {
+            this.lastIdleTest = System.nanoTime();
+            this.idleTesting.set(false);
+        }
+    }
+
+    private boolean isValid(final T resource) {
+        try {
+            return this.resourceHandler.validate(resource);
+        } catch (final RuntimeException e) {
+            LOG.log(Level.FINE, "Error while validating a resource with " + this.resourceHandler.getClass().getName(), e);
+            return false;
+        }
+    }
+
+    private void destroyResource(final T resource) {
+        try {
+            this.resourceHandler.destroy(resource);
+        } catch (final RuntimeException e) {
+            LOG.log(Level.WARNING, "Error while destroying a resource with " + this.resourceHandler.getClass().getName(), e);
         }
     }
 
@@ -123,32 +789,297 @@ public class GenericResourcePool<T> {
      * 
      */
     public final T take() {
-        if(this.poolPolicy == PoolPolicy.WAIT) {
+        final PoolTakeEvent takeEvent = new PoolTakeEvent();
+        takeEvent.begin();
+        final LeakDetector<T> detector = this.leakDetector;
+        if (detector != null) {
+            this.reclaimLeakedPermits(detector);
+        }
+        if (this.semaphore.tryAcquire()) {
+            this.commit(takeEvent, false);
+        } else if(this.poolPolicy == PoolPolicy.WAIT) {
             try {
-                this.semaphore.acquire();
+                this.waitPermit(detector);
             } catch (InterruptedException e) {
                 throw new PoolException(e);
+            } finally {
+                this.commit(takeEvent, false);
             }
         } else {
-            boolean available = this.semaphore.tryAcquire();
-            if(!available) {
-                throw new PoolException("There is no more available resource in the pool.");
+            this.commit(takeEvent, true);
+            throw new PoolException("There is no more available resource in the pool.");
+        }
+        return this.takeWithPermit(detector);
+    }
+
+    /**
+     * Take one unused resource if one is available before the timeout, whatever the pool policy
+     * 
+     * @return one &lt;T&gt;, or null if none is available before the timeout
+     */
+    final T tryTake(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final LeakDetector<T> detector = this.leakDetector;
+        if (detector != null) {
+            this.reclaimLeakedPermits(detector);
+        }
+        // without timeout, the try is not interrupted
+        if (!(timeout == 0 ? this.semaphore.tryAcquire() : this.semaphore.tryAcquire(timeout, unit))) {
+            return null;
+        }
+        return this.takeWithPermit(detector);
+    }
+
+    private T takeWithPermit(final LeakDetector<T> detector) {
+        T resource;
+        try {
+            resource = getAvailableResource(detector);
+        } catch (final RuntimeException e) {
+            // the resource could not be created, its permit is given back
+            this.semaphore.release();
+            throw e;
+        }
+
+        this.countTake();
+        return resource;
+    }
+
+    private void countTake() {
+        this.testIdleIfNeeded();
+        final int used = this.inUse.incrementAndGet();
+        if (this.adaptiveSizing != null) {
+            this.takes.incrementAndGet();
+            int peak = this.peakInUse.get();
+            while (used > peak && !this.peakInUse.compareAndSet(peak, used)) {
+                peak = this.peakInUse.get();
             }
+            this.adjustIfNeeded();
+            this.replenish();
+        }
+    }
+
+    /**
+     * <p>
+     * Take one unused resource in the current pool without blocking. If no resource is available, the
+     * returned future is completed when a resource is released, the oldest asynchronous takes being
+     * served first. The method onTake() of the resource handler is called before completing the future.
+     * </p>
+     * <p>
+     * The resource must be released as with {@link #take()}. Cancelling the future gives up the take;
+     * a resource obtained meanwhile is released.
+     * </p>
+     * 
+     * @return the future of one &lt;T&gt;, completed exceptionally by a {@link PoolException} if there is
+     *         no more available resource in the pool for the pool policy REJECT, or by the exception of
+     *         the resource handler if the resource could not be created
+     */
+    public final CompletableFuture<T> takeAsync() {
+        final LeakDetector<T> detector = this.leakDetector;
+        if (detector != null) {
+            this.reclaimLeakedPermits(detector);
+        }
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        if (this.semaphore.tryAcquire()) {
+            this.completeWithPermit(future);
+        } else if (this.poolPolicy == PoolPolicy.WAIT) {
+            this.lock.lock();
+            try {
+                this.asyncWaiters.add(future);
+                this.asyncWaiterCount = this.asyncWaiters.size();
+            } finally {
+                this.lock.unlock();
+            }
+            future.whenComplete((resource, failure) -> {
+                if (failure != null) {
+                    this.removeAsyncWaiter(future);
+                }
+            });
+            // a permit released before the waiter was queued would not be given to it
+            this.serveAsyncWaiters();
+        } else {
+            future.completeExceptionally(new PoolException("There is no more available resource in the pool."));
+        }
+        return future;
+    }
+
+    /**
+     * Take one unused resource in the current pool without blocking, like {@link #takeAsync()}, giving up
+     * after a timeout
+     * 
+     * @param timeout
+     *            how long to wait for a resource
+     * @param unit
+     *            the unit of the timeout
+     * @return the future of one &lt;T&gt;, completed exceptionally by a {@link PoolException} if no
+     *         resource is available before the timeout
+     */
+    public final CompletableFuture<T> takeAsync(final long timeout, final TimeUnit unit) {
+        final CompletableFuture<T> future = this.takeAsync();
+        if (!future.isDone()) {
+            CompletableFuture.delayedExecutor(timeout, unit).execute(() -> future.completeExceptionally(
+                    new PoolException("No resource available in the pool after " + timeout + " " + unit)));
+        }
+        return future;
+    }
+
+    /**
+     * Complete a future with a resource, a permit being acquired for it
+     */
+    private void completeWithPermit(final CompletableFuture<T> future) {
+        final T resource;
+        try {
+            resource = this.getAvailableResource(this.leakDetector);
+        } catch (final RuntimeException e) {
+            this.semaphore.release();
+            future.completeExceptionally(e);
+            return;
+        }
+        this.countTake();
+        if (!future.complete(resource)) {
+            // cancelled or timed out meanwhile
+            this.release(resource);
+        }
+    }
+
+    private CompletableFuture<T> pollAsyncWaiter() {
+        this.lock.lock();
+        try {
+            final CompletableFuture<T> waiter = this.asyncWaiters.poll();
+            this.asyncWaiterCount = this.asyncWaiters.size();
+            return waiter;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void removeAsyncWaiter(final CompletableFuture<T> waiter) {
+        this.lock.lock();
+        try {
+            this.asyncWaiters.remove(waiter);
+            this.asyncWaiterCount = this.asyncWaiters.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Give the free permits to the asynchronous waiters
+     */
+    private void serveAsyncWaiters() {
+        while (this.asyncWaiterCount > 0 && this.semaphore.tryAcquire()) {
+            final CompletableFuture<T> waiter = this.pollAsyncWaiter();
+            if (waiter == null) {
+                // the waiters were served by another thread, a new one may be queued meanwhile
+                this.semaphore.release();
+            } else {
+                this.completeWithPermit(waiter);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Take one unused resource in the current pool, like {@link #take()}, and return it in a {@link Lease}
+     * releasing it when closed:
+     * </p>
+     * <pre>
+     * try (Lease&lt;String&gt; lease = stringPool.lease()) {
+     *     String st = lease.get();
+     *     // ...
+     * }
+     * </pre>
+     * <p>
+     * A {@link Lease} is a small object that usually does not escape its try-with-resources block.
+     * </p>
+     * 
+     * @return the {@link Lease} of one &lt;T&gt;
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public final Lease<T> lease() {
+        return this.newLease(this.take());
+    }
+
+    /**
+     * Put a resource taken from this pool in a {@link Lease}
+     */
+    final Lease<T> newLease(final T resource) {
+        return new Lease<T>(this, resource);
+    }
+
+    private void commit(final PoolTakeEvent takeEvent, final boolean rejected) {
+        takeEvent.end();
+        if (takeEvent.shouldCommit()) {
+            takeEvent.resourceHandler = this.resourceHandler.getClass().getName();
+            takeEvent.rejected = rejected;
+            takeEvent.commit();
+        }
+    }
+
+    private T createResource() {
+        final PoolCreateEvent createEvent = new PoolCreateEvent();
+        createEvent.begin();
+        final T resource = this.resourceHandler.create();
+        createEvent.end();
+        if (createEvent.shouldCommit()) {
+            createEvent.resourceHandler = this.resourceHandler.getClass().getName();
+            createEvent.commit();
         }
-        T resource = getAvailableResource();
         return resource;
     }
     
-    private synchronized T getAvailableResource() {
-        T resource;
+    private T getAvailableResource(final LeakDetector<T> detector) {
+        T resource = null;
+        boolean checkLeaks = false;
         
-        if(this.availableResources.isEmpty()) {
-            resource = this.resourceHandler.create();
-        } else {
-            resource = this.availableResources.remove(0);
+        this.lock.lock();
+        while (resource == null && !this.availableResources.isEmpty()) {
+            final T idle = this.availableResources.remove(0);
+            if (!this.testOnBorrow) {
+                resource = idle;
+            } else {
+                // validated without the lock, like the creation
+                this.lock.unlock();
+                if (this.isValid(idle)) {
+                    resource = idle;
+                } else {
+                    this.destroyResource(idle);
+                }
+                this.lock.lock();
+            }
+        }
+        if (resource == null) {
+            // created without the lock, the other threads do not wait for a slow creation
+            this.lock.unlock();
+            resource = this.createResource();
+            this.lock.lock();
+        }
+        try {
+            if (detector != null) {
+                detector.track(resource);
+                checkLeaks = ++this.takesSinceLeakCheck >= LEAK_CHECK_TAKES;
+                if (checkLeaks) {
+                    this.takesSinceLeakCheck = 0;
+                }
+            } else {
+                this.usedResources.add(resource);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.resourceHandler.onTake(resource);
+        } catch (final RuntimeException e) {
+            // the broken resource is not given back to the pool
+            this.forgetUsedResource(resource);
+            this.destroyResource(resource);
+            throw e;
+        }
+        if (checkLeaks) {
+            detector.findLongHeld();
         }
-        this.usedResources.add(resource);
-        this.resourceHandler.onTake(resource);
         
         return resource;
     }
@@ -156,19 +1087,91 @@ public class GenericResourcePool<T> {
     /**
      * Release the specified resource 
      * After putting back a resource in the pool, the method onRelease() of the resource
-     * handler is called.
+     * handler is called. If it throws an exception, the exception is logged and the resource
+     * is destroyed instead of being put back.
      * 
      * @param resource
      *            The resource to release
      */
     public final void release(final T resource) {
+        this.forgetUsedResource(resource);
+        this.releaseForgotten(resource);
+    }
+
+    /**
+     * Release the specified resource if it was taken from this pool
+     * 
+     * @return false if the resource was not taken from this pool
+     */
+    final boolean tryRelease(final T resource) {
+        if (!this.removeUsedResource(resource)) {
+            return false;
+        }
+        this.releaseForgotten(resource);
+        return true;
+    }
+
+    private void releaseForgotten(final T resource) {
         this.putBackResource(resource);
-        this.semaphore.release(); 
+        this.inUse.decrementAndGet();
+        if (this.asyncWaiterCount > 0) {
+            final CompletableFuture<T> waiter = this.pollAsyncWaiter();
+            if (waiter != null) {
+                // the permit goes to the oldest asynchronous waiter
+                this.completeWithPermit(waiter);
+                return;
+            }
+        }
+        this.semaphore.release();
+        if (this.asyncWaiterCount > 0) {
+            this.serveAsyncWaiters();
+        }
     }
     
-    private synchronized void putBackResource(T resource) {
-        assert this.usedResources.remove(resource);
-        this.availableResources.add(resource);
-        this.resourceHandler.onRelease(resource);
+    private void putBackResource(T resource) {
+        try {
+            this.resourceHandler.onRelease(resource);
+        } catch (final RuntimeException e) {
+            // the resource may be in a bad state, it is not given back to the pool
+            LOG.log(Level.WARNING, "Error while releasing a resource with " + this.resourceHandler.getClass().getName(), e);
+            this.destroyResource(resource);
+            return;
+        }
+        boolean dropped = true;
+        this.lock.lock();
+        try {
+            final AdaptiveSizing sizing = this.adaptiveSizing;
+            // above the highest number of idle resources, the resource is dropped, unless a pool of fixed size
+            // needs it for the peak of the period: the resources of a burst are kept until the adjustment
+            final int maxIdle = sizing == null ? Integer.MAX_VALUE
+                    : sizing.isFixedSize()
+                            ? sizing.getMaxIdle() + Math.max(0, this.peakInUse.get() - this.inUse.get() + 1)
+                            : sizing.getMaxIdle();
+            if (!this.closed && this.availableResources.size() < maxIdle) {
+                this.availableResources.add(resource);
+                dropped = false;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (dropped) {
+            this.destroyResource(resource);
+        }
+    }
+
+    private void forgetUsedResource(final T resource) {
+        // not in the assertion, so that it is removed even when assertions are disabled
+        final boolean used = this.removeUsedResource(resource);
+        assert used;
+    }
+
+    private boolean removeUsedResource(final T resource) {
+        this.lock.lock();
+        try {
+            final LeakDetector<T> detector = this.leakDetector;
+            return (detector != null && detector.untrack(resource)) || this.usedResources.remove(resource);
+        } finally {
+            this.lock.unlock();
+        }
     }
 }
@@ -0,0 +1,408 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * A pool of resources depending on a key, for example transformers of different templates or document
+ * builders of different features. The resources of each key are kept in their own
+ * {@link GenericResourcePool}, whose {@link ResourceHandler} is given by a factory for the key.
+ * </p>
+ * <p>
+ * The number of resources is limited for each key, and for all the keys together: when the global
+ * maximum is reached, the idle resources of the least recently used keys are destroyed to create the
+ * new ones. The keys are forgotten when there are more than a maximum number of keys, the least
+ * recently used first, once none of their resources is taken.
+ * </p>
+ */
+public class KeyedResourcePool<K, T> {
+
+    // how long a thread waits for a resource to be destroyed before looking for idle resources again
+    private static final long EVICTION_CHECK_PERIOD_MS = 100;
+
+    // the number of users of an evicted key pool
+    private static final int EVICTED = -1;
+
+    /**
+     * The pool of a key, handling its resources so that they are counted in the global maximum
+     */
+    private final class KeyPool implements ResourceHandler<T> {
+
+        final K key;
+
+        final ResourceHandler<T> handler;
+
+        final GenericResourcePool<T> pool;
+
+        // the resources taken and not released, EVICTED once the pool is evicted
+        final AtomicInteger users = new AtomicInteger();
+
+        volatile long lastUsed = System.nanoTime();
+
+        KeyPool(final K key, final ResourceHandler<T> handler) {
+            this.key = key;
+            this.handler = handler;
+            this.pool = new GenericResourcePool<T>(this, 0, KeyedResourcePool.this.maxSizePerKey,
+                    KeyedResourcePool.this.poolPolicy);
+            // the leaked resources are neither released nor destroyed
+            this.pool.setLeakReclaimListener(reclaimed -> {
+                this.users.addAndGet(-reclaimed);
+                KeyedResourcePool.this.resourcePermits.release(reclaimed);
+            });
+            final LeakDetection leakDetection = KeyedResourcePool.this.leakDetection;
+            if (leakDetection != null) {
+                leakDetection.enable(this.pool);
+            }
+        }
+
+        boolean enter() {
+            int current;
+            do {
+                current = this.users.get();
+                if (current == EVICTED) {
+                    return false;
+                }
+            } while (!this.users.compareAndSet(current, current + 1));
+            this.lastUsed = System.nanoTime();
+            return true;
+        }
+
+        boolean tryEvict() {
+            return this.users.compareAndSet(0, EVICTED);
+        }
+
+        @Override
+        public T create() {
+            KeyedResourcePool.this.acquireResourcePermit();
+            try {
+                return this.handler.create();
+            } catch (final RuntimeException e) {
+                KeyedResourcePool.this.resourcePermits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void onTake(final T resource) {
+            this.handler.onTake(resource);
+        }
+
+        @Override
+        public void onRelease(final T resource) {
+            try {
+                this.handler.onRelease(resource);
+            } finally {
+                this.users.decrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean validate(final T resource) {
+            return this.handler.validate(resource);
+        }
+
+        @Override
+        public void destroy(final T resource) {
+            try {
+                this.handler.destroy(resource);
+            } finally {
+                KeyedResourcePool.this.resourcePermits.release();
+            }
+        }
+    }
+
+    /**
+     * The settings of the leak detection of the key pools
+     */
+    private static final class LeakDetection {
+
+        final long threshold;
+
+        final TimeUnit unit;
+
+        final int samplingRate;
+
+        LeakDetection(final long threshold, final TimeUnit unit, final int samplingRate) {
+            this.threshold = threshold;
+            this.unit = unit;
+            this.samplingRate = samplingRate;
+        }
+
+        void enable(final GenericResourcePool<?> pool) {
+            pool.enableLeakDetection(this.threshold, this.unit, this.samplingRate);
+        }
+    }
+
+    private final Function<? super K, ? extends ResourceHandler<T>> handlerFactory;
+
+    private final int maxSizePerKey;
+
+    private final int maxKeys;
+
+    private final PoolPolicy poolPolicy;
+
+    private final ConcurrentMap<K, KeyPool> keyPools = new ConcurrentHashMap<K, KeyPool>();
+
+    // a permit for each resource that can still be created, for all the keys
+    private final Semaphore resourcePermits;
+
+    private final int maxSize;
+
+    // only one thread looks for the keys to evict at a time
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // null if the leak detection is not enabled
+    private volatile LeakDetection leakDetection;
+
+    /**
+     * Instantiate a new keyed resource pool
+     * 
+     * @param handlerFactory
+     *            gives the {@link ResourceHandler} of the resources of a key. it cannot be null.
+     * @param maxSizePerKey
+     *            the maximum number of resources of a key
+     * @param maxSize
+     *            the maximum number of resources of all the keys, idle resources included
+     * @param maxKeys
+     *            the number of keys above which the least recently used ones are forgotten
+     * @param poolPolicy
+     *            the {@link PoolPolicy} to adopt when the maximum size of the key, or the global
+     *            maximum size without idle resource to destroy, is reached. it cannot be null.
+     */
+    public KeyedResourcePool(final Function<? super K, ? extends ResourceHandler<T>> handlerFactory,
+            final int maxSizePerKey, final int maxSize, final int maxKeys, final PoolPolicy poolPolicy) {
+        assert handlerFactory != null;
+        assert maxSizePerKey > 0;
+        assert maxSize > 0;
+        assert maxKeys > 0;
+        assert poolPolicy != null;
+
+        this.handlerFactory = handlerFactory;
+        this.maxSizePerKey = maxSizePerKey;
+        this.maxSize = maxSize;
+        this.maxKeys = maxKeys;
+        this.poolPolicy = poolPolicy;
+        this.resourcePermits = new Semaphore(maxSize);
+    }
+
+    /**
+     * Take one unused resource of a key, see {@link GenericResourcePool#take()}
+     * 
+     * @param key
+     *            the key of the resource
+     * @return one &lt;T&gt;
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public final T take(final K key) {
+        final KeyPool keyPool = this.enter(key);
+        try {
+            return keyPool.pool.take();
+        } catch (final RuntimeException e) {
+            keyPool.users.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Take one unused resource of a key in a {@link Lease} releasing it when closed, see
+     * {@link GenericResourcePool#lease()}
+     * 
+     * @param key
+     *            the key of the resource
+     * @return the {@link Lease} of one &lt;T&gt;
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public final Lease<T> lease(final K key) {
+        final KeyPool keyPool = this.enter(key);
+        try {
+            return keyPool.pool.lease();
+        } catch (final RuntimeException e) {
+            keyPool.users.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Release a resource of a key
+     * 
+     * @param key
+     *            the key the resource was taken for
+     * @param resource
+     *            The resource to release
+     */
+    public final void release(final K key, final T resource) {
+        // a key pool is not evicted while one of its resources is taken
+        final KeyPool keyPool = this.keyPools.get(key);
+        assert keyPool != null;
+        keyPool.pool.release(resource);
+    }
+
+    /**
+     * Enable the leak detection of the resources of all the keys, see
+     * {@link GenericResourcePool#enableLeakDetection(long, TimeUnit, int)}. The keys whose resources were
+     * garbage collected without being released can be forgotten again.
+     * 
+     * @param threshold
+     *            the duration above which a taken resource is reported
+     * @param unit
+     *            the unit of the threshold
+     * @param samplingRate
+     *            the stack of the thread is captured for one take out of this rate. 1 to capture it on
+     *            each take.
+     */
+    public void enableLeakDetection(final long threshold, final TimeUnit unit, final int samplingRate) {
+        final LeakDetection settings = new LeakDetection(threshold, unit, samplingRate);
+        this.leakDetection = settings;
+        for (final KeyPool keyPool : this.keyPools.values()) {
+            settings.enable(keyPool.pool);
+        }
+    }
+
+    /**
+     * @return the number of keys having a pool
+     */
+    public int getKeyCount() {
+        return this.keyPools.size();
+    }
+
+    /**
+     * @return the number of resources of all the keys, idle resources included
+     */
+    public int getSize() {
+        return this.maxSize - this.resourcePermits.availablePermits();
+    }
+
+    private KeyPool enter(final K key) {
+        while (true) {
+            KeyPool keyPool = this.keyPools.get(key);
+            if (keyPool == null) {
+                keyPool = this.keyPools.computeIfAbsent(key,
+                        newKey -> new KeyPool(newKey, this.handlerFactory.apply(newKey)));
+                if (this.keyPools.size() > this.maxKeys) {
+                    this.evictColdKeys(keyPool);
+                }
+            }
+            if (keyPool.enter()) {
+                return keyPool;
+            }
+            // evicted meanwhile, a new pool is created for the key
+            this.keyPools.remove(key, keyPool);
+        }
+    }
+
+    /**
+     * Forget the least recently used keys without resource taken, except the key being entered
+     */
+    private void evictColdKeys(final KeyPool entered) {
+        this.evictionLock.lock();
+        try {
+            boolean leaksChecked = false;
+            while (this.keyPools.size() > this.maxKeys) {
+                KeyPool coldest = null;
+                for (final KeyPool keyPool : this.keyPools.values()) {
+                    if (keyPool != entered && keyPool.users.get() == 0
+                            && (coldest == null || keyPool.lastUsed < coldest.lastUsed)) {
+                        coldest = keyPool;
+                    }
+                }
+                if (coldest == null && this.leakDetection != null && !leaksChecked) {
+                    // the keys whose resources leaked are used until their leaks are found
+                    for (final KeyPool keyPool : this.keyPools.values()) {
+                        keyPool.pool.checkLeaks();
+                    }
+                    leaksChecked = true;
+                    continue;
+                }
+                // when all the keys are used, there may be more keys than the maximum for a while
+                if (coldest == null) {
+                    return;
+                }
+                if (coldest.tryEvict()) {
+                    this.keyPools.remove(coldest.key, coldest);
+                    coldest.pool.close();
+                }
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Destroy an idle resource of the least recently used key, evicting the key if none of its resources
+     * is taken
+     * 
+     * @return false if no key has an idle resource
+     */
+    private boolean evictIdleResource() {
+        this.evictionLock.lock();
+        try {
+            KeyPool coldest = null;
+            for (final KeyPool keyPool : this.keyPools.values()) {
+                if ((coldest == null || keyPool.lastUsed < coldest.lastUsed) && keyPool.pool.getIdleCount() > 0) {
+                    coldest = keyPool;
+                }
+            }
+            if (coldest == null) {
+                return false;
+            }
+            if (coldest.tryEvict()) {
+                this.keyPools.remove(coldest.key, coldest);
+                coldest.pool.close();
+            } else {
+                coldest.pool.evictIdleResources(1);
+            }
+            return true;
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Acquire the permit to create a resource, destroying idle resources if the global maximum is reached
+     */
+    private void acquireResourcePermit() {
+        try {
+            while (!this.resourcePermits.tryAcquire()) {
+                if (!this.evictIdleResource()) {
+                    if (this.poolPolicy == PoolPolicy.REJECT) {
+                        throw new PoolException("There is no more available resource in the pool.");
+                    }
+                    if (this.resourcePermits.tryAcquire(EVICTION_CHECK_PERIOD_MS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new PoolException(e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the resources borrowed from a {@link GenericResourcePool} to find the
+ * ones never released. Each borrowed resource is only weakly referenced, so
+ * that a resource dropped without being released is detected when it is
+ * garbage collected and its permit can be given back to the pool. The stack
+ * of the borrowing thread is only captured for a sample of the borrows.
+ */
+final class LeakDetector<T> {
+
+    private static final Logger LOG = Logger.getLogger(GenericResourcePool.class.getName());
+
+    /**
+     * A weak reference to a borrowed resource, with the information on its
+     * borrow
+     */
+    private static final class Borrow<T> extends WeakReference<T> {
+
+        private final int identityHashCode;
+
+        private final long takenAt = System.nanoTime();
+
+        private final String threadName = Thread.currentThread().getName();
+
+        private final Throwable acquisitionSite;
+
+        private boolean reported = false;
+
+        Borrow(final T resource, final ReferenceQueue<T> queue, final boolean sampled) {
+            super(resource, queue);
+            this.identityHashCode = System.identityHashCode(resource);
+            this.acquisitionSite = sampled ? new Throwable("Resource acquired here") : null;
+        }
+    }
+
+    private final String poolName;
+
+    private volatile long thresholdNanos;
+
+    private volatile int samplingRate;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+
+    // the borrows, by identity hash code of the resource as the resources are
+    // not referenced strongly
+    private final Map<Integer, List<Borrow<T>>> borrows = new HashMap<Integer, List<Borrow<T>>>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param poolName
+     *            the name of the pool in the reports
+     * @param thresholdNanos
+     *            the duration above which a borrowed resource is reported
+     * @param samplingRate
+     *            the stack of one borrow out of this rate is captured
+     */
+    LeakDetector(final String poolName, final long thresholdNanos, final int samplingRate) {
+        this.poolName = poolName;
+        this.configure(thresholdNanos, samplingRate);
+    }
+
+    void configure(final long thresholdNanos, final int samplingRate) {
+        assert thresholdNanos > 0;
+        assert samplingRate > 0;
+
+        this.thresholdNanos = thresholdNanos;
+        this.samplingRate = samplingRate;
+    }
+
+    void track(final T resource) {
+        final boolean sampled = this.borrowCount.getAndIncrement() % this.samplingRate == 0;
+        final Borrow<T> borrow = new Borrow<T>(resource, this.queue, sampled);
+        this.lock.lock();
+        try {
+            List<Borrow<T>> sameHashBorrows = this.borrows.get(borrow.identityHashCode);
+            if (sameHashBorrows == null) {
+                sameHashBorrows = new ArrayList<Borrow<T>>(1);
+                this.borrows.put(borrow.identityHashCode, sameHashBorrows);
+            }
+            sameHashBorrows.add(borrow);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the resource was tracked
+     */
+    boolean untrack(final T resource) {
+        final Integer identityHashCode = System.identityHashCode(resource);
+        this.lock.lock();
+        try {
+            final List<Borrow<T>> sameHashBorrows = this.borrows.get(identityHashCode);
+            if (sameHashBorrows != null) {
+                for (final Iterator<Borrow<T>> it = sameHashBorrows.iterator(); it.hasNext();) {
+                    final Borrow<T> borrow = it.next();
+                    if (borrow.get() == resource) {
+                        it.remove();
+                        if (sameHashBorrows.isEmpty()) {
+                            this.borrows.remove(identityHashCode);
+                        }
+                        borrow.clear();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Find the resources garbage collected without being released, and log
+     * them.
+     * 
+     * @return the number of such resources, whose permits must be given back
+     *         to the pool
+     */
+    int reclaimCollected() {
+        int reclaimed = 0;
+        Borrow<?> borrow;
+        while ((borrow = (Borrow<?>) this.queue.poll()) != null) {
+            if (this.remove(borrow)) {
+                reclaimed++;
+                LOG.log(Level.WARNING, "A resource of the pool " + this.poolName + " taken by the thread "
+                        + borrow.threadName + " has been garbage collected without being released",
+                        borrow.acquisitionSite);
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Find the resources borrowed for longer than the threshold. They are
+     * logged the first time they are found.
+     * 
+     * @return the descriptions of these resources
+     */
+    List<String> findLongHeld() {
+        final long now = System.nanoTime();
+        final List<String> longHeld = new ArrayList<String>();
+        this.lock.lock();
+        try {
+            for (final List<Borrow<T>> sameHashBorrows : this.borrows.values()) {
+                for (final Borrow<T> borrow : sameHashBorrows) {
+                    final long heldNanos = now - borrow.takenAt;
+                    if (heldNanos > this.thresholdNanos) {
+                        final String description = "A resource of the pool " + this.poolName
+                                + " is held by the thread " + borrow.threadName + " for "
+                                + TimeUnit.NANOSECONDS.toMillis(heldNanos) + " ms";
+                        longHeld.add(description);
+                        if (!borrow.reported) {
+                            borrow.reported = true;
+                            LOG.log(Level.WARNING, description, borrow.acquisitionSite);
+                        }
+                    }
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return longHeld;
+    }
+
+    private boolean remove(final Borrow<?> borrow) {
+        this.lock.lock();
+        try {
+            final List<Borrow<T>> sameHashBorrows = this.borrows.get(borrow.identityHashCode);
+            if (sameHashBorrows != null && sameHashBorrows.remove(borrow)) {
+                if (sameHashBorrows.isEmpty()) {
+                    this.borrows.remove(borrow.identityHashCode);
+                }
+                return true;
+            }
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
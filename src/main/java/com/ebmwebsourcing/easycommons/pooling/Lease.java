@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>
+ * A resource taken from a {@link GenericResourcePool}, given back to the pool when the lease is closed:
+ * </p>
+ * <pre>
+ * try (Lease&lt;String&gt; lease = stringPool.lease()) {
+ *     String st = lease.get();
+ *     // ...
+ * }
+ * </pre>
+ * <p>
+ * A lease is closed once, by any thread: closing a closed lease does nothing. The lease is small and
+ * short-lived, so that its allocation is usually removed by the JIT compiler when it is used in a
+ * try-with-resources statement.
+ * </p>
+ */
+public final class Lease<T> implements AutoCloseable {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Lease, Object> RESOURCE = AtomicReferenceFieldUpdater
+            .newUpdater(Lease.class, Object.class, "resource");
+
+    private final GenericResourcePool<T> pool;
+
+    // null once the lease is closed
+    private volatile T resource;
+
+    Lease(final GenericResourcePool<T> pool, final T resource) {
+        this.pool = pool;
+        this.resource = resource;
+    }
+
+    /**
+     * @return the leased resource
+     * @throws IllegalStateException
+     *             if the lease is closed
+     */
+    public T get() {
+        final T leased = this.resource;
+        if (leased == null) {
+            throw new IllegalStateException("The lease is closed");
+        }
+        return leased;
+    }
+
+    /**
+     * Release the resource to the pool. Closing a closed lease does nothing.
+     */
+    @Override
+    public void close() {
+        @SuppressWarnings("unchecked")
+        final T leased = (T) RESOURCE.getAndSet(this, null);
+        if (leased != null) {
+            this.pool.release(leased);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for the creation of a resource of a {@link GenericResourcePool}
+ */
+@Name("com.ebmwebsourcing.easycommons.PoolCreate")
+@Label("Pool Resource Creation")
+@Description("The creation of a resource by the resource handler of a pool")
+@Category({ "EasyCommons", "Pooling" })
+final class PoolCreateEvent extends Event {
+
+    @Label("Resource Handler")
+    @Description("The class of the resource handler of the pool")
+    String resourceHandler;
+}
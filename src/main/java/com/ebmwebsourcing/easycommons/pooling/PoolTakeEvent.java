@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Flight Recorder event for the wait of a thread taking a resource from a {@link GenericResourcePool}
+ */
+@Name("com.ebmwebsourcing.easycommons.PoolTake")
+@Label("Pool Take")
+@Description("A thread waiting for a resource of a pool")
+@Category({ "EasyCommons", "Pooling" })
+@Threshold("1 ms")
+@StackTrace(true)
+final class PoolTakeEvent extends Event {
+
+    @Label("Resource Handler")
+    @Description("The class of the resource handler of the pool")
+    String resourceHandler;
+
+    @Label("Rejected")
+    @Description("True if no resource was available for the REJECT policy")
+    boolean rejected;
+}
@@ -27,7 +27,9 @@ package com.ebmwebsourcing.easycommons.pooling;
 public interface ResourceHandler<T> {
 
     /**
-     * Create a resource.
+     * Create a resource. The pool calls it outside of its lock and may create several resources at the same time,
+     * so a handler creating its resources with a shared factory that is not thread-safe must synchronize the
+     * creation.
      * 
      * @return a new resource instance.
      */
@@ -48,4 +50,27 @@ public interface ResourceHandler<T> {
      *            The resource put back in the pool
      */
     void onRelease(final T resource);
+
+    /**
+     * Check whether a resource can still be used. Called before taking an idle resource if the test on
+     * borrow of the pool is enabled, and periodically on the idle resources if its test while idle is
+     * enabled. An invalid resource is destroyed.
+     * 
+     * @param resource
+     *            the resource to check
+     * @return false if the resource must not be used anymore
+     */
+    default boolean validate(final T resource) {
+        return true;
+    }
+
+    /**
+     * Call when a resource is discarded by the pool: invalid, broken by an exception of
+     * {@link #onTake(Object)} or {@link #onRelease(Object)}, or no more needed
+     * 
+     * @param resource
+     *            the resource discarded
+     */
+    default void destroy(final T resource) {
+    }
 }
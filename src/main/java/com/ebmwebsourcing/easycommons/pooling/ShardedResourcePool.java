@@ -0,0 +1,422 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * A pool of resources split in several {@link GenericResourcePool} shards, so that the threads taking
+ * and releasing resources at the same time do not all contend on the same pool. Each thread takes its
+ * resources from its own shard, chosen from the thread id, and steals them from the other shards when
+ * its shard has none available.
+ * </p>
+ * <p>
+ * The minimum and maximum sizes are split between the shards. A resource is released to the shard it
+ * was taken from: a release by the thread that took the resource finds it in the thread's shard, a
+ * release by another thread may look for it in the other shards too. A {@link Lease} always knows its
+ * shard.
+ * </p>
+ * <p>
+ * With several shards, a thread waiting for a resource polls its shard and the other ones periodically. These
+ * polls are not recorded as Flight Recorder take events and do not reclaim the permits of the leaked resources
+ * while waiting, as a take of a {@link GenericResourcePool} does. The asynchronous takes waiting for a
+ * resource are served in order by the releases to any shard.
+ * </p>
+ * <p>
+ * There are never more shards than the maximum number of resources, so that each shard may hold one.
+ * </p>
+ */
+public class ShardedResourcePool<T> {
+
+    private static final Logger LOG = Logger.getLogger(GenericResourcePool.class.getName());
+
+    // how long a waiting thread waits on its shard before trying to steal a resource again
+    private static final long STEAL_PERIOD_MS = 10;
+
+    private static final class Shard<T> {
+
+        final GenericResourcePool<T> pool;
+
+        // the resources taken from this shard
+        final AtomicLong takes = new AtomicLong();
+
+        // the resources taken from this shard by the threads of the other shards
+        final AtomicLong steals = new AtomicLong();
+
+        Shard(final GenericResourcePool<T> pool) {
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * The state of a shard at a given time
+     */
+    public static final class ShardMetrics {
+
+        private final int inUseCount;
+
+        private final int idleCount;
+
+        private final int maxSize;
+
+        private final long takeCount;
+
+        private final long stealCount;
+
+        private ShardMetrics(final int inUseCount, final int idleCount, final int maxSize, final long takeCount,
+                final long stealCount) {
+            this.inUseCount = inUseCount;
+            this.idleCount = idleCount;
+            this.maxSize = maxSize;
+            this.takeCount = takeCount;
+            this.stealCount = stealCount;
+        }
+
+        /**
+         * @return the number of resources of the shard taken and not released yet
+         */
+        public int getInUseCount() {
+            return this.inUseCount;
+        }
+
+        /**
+         * @return the number of resources of the shard ready to be taken
+         */
+        public int getIdleCount() {
+            return this.idleCount;
+        }
+
+        /**
+         * @return the maximum number of resources of the shard
+         */
+        public int getMaxSize() {
+            return this.maxSize;
+        }
+
+        /**
+         * @return the number of resources taken from the shard
+         */
+        public long getTakeCount() {
+            return this.takeCount;
+        }
+
+        /**
+         * @return the number of resources taken from the shard by the threads of the other shards
+         */
+        public long getStealCount() {
+            return this.stealCount;
+        }
+
+        @Override
+        public String toString() {
+            return "inUse=" + this.inUseCount + ", idle=" + this.idleCount + ", maxSize=" + this.maxSize
+                    + ", takes=" + this.takeCount + ", steals=" + this.stealCount;
+        }
+    }
+
+    private final Shard<T>[] shards;
+
+    private final PoolPolicy poolPolicy;
+
+    // the asynchronous takes waiting for a resource of any shard, guarded by the lock
+    private final Deque<CompletableFuture<T>> asyncWaiters = new ArrayDeque<CompletableFuture<T>>();
+
+    private final ReentrantLock asyncWaitersLock = new ReentrantLock();
+
+    /**
+     * Instantiate a new sharded resource pool
+     * 
+     * @param ressourceHandler
+     *            A {@link ResourceHandler} in order to manage resources of all the shards. it cannot
+     *            be null.
+     * @param shardCount
+     *            the number of shards, at least 1, reduced to the maximum size if it is greater
+     * @param minSize
+     *            the minimum number of resources in the pool, split between the shards
+     * @param maxSize
+     *            the maximum number of resources in the pool, split between the shards. It must be
+     *            greater or equals to the specified minSize.
+     * @param poolPolicy
+     *            the {@link PoolPolicy} to adopt when the maximum size is reached in all the shards.
+     *            it cannot be null.
+     */
+    public ShardedResourcePool(final ResourceHandler<T> ressourceHandler, final int shardCount,
+            final int minSize, final int maxSize, final PoolPolicy poolPolicy) {
+        assert shardCount >= 1;
+        assert minSize >= 0;
+        assert maxSize >= minSize;
+        assert poolPolicy != null;
+
+        this.poolPolicy = poolPolicy;
+        // a shard without resource would never serve the threads using it
+        this.shards = newShards(Math.max(1, Math.min(shardCount, maxSize)));
+        for (int i = 0; i < this.shards.length; i++) {
+            final int shardMinSize = minSize / this.shards.length + (i < minSize % this.shards.length ? 1 : 0);
+            final int shardMaxSize = maxSize / this.shards.length + (i < maxSize % this.shards.length ? 1 : 0);
+            this.shards[i] = new Shard<T>(
+                    new GenericResourcePool<T>(ressourceHandler, shardMinSize, shardMaxSize, poolPolicy));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Shard<T>[] newShards(final int count) {
+        return (Shard<T>[]) new Shard<?>[count];
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Adapt the size of each shard to its load, see {@link GenericResourcePool#setAdaptiveSizing(AdaptiveSizing)}
+     * 
+     * @param adaptiveSizing
+     *            the settings of the adaptive sizing of each shard, null to disable it
+     */
+    public void setAdaptiveSizing(final AdaptiveSizing adaptiveSizing) {
+        for (final Shard<T> shard : this.shards) {
+            shard.pool.setAdaptiveSizing(adaptiveSizing);
+        }
+    }
+
+    /**
+     * Take one unused resource, from the shard of the current thread if it has one available, else from
+     * another shard. See {@link GenericResourcePool#take()}.
+     * 
+     * @return one &lt;T&gt;
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public final T take() {
+        return this.take((shard, resource) -> resource);
+    }
+
+    /**
+     * Take one unused resource like {@link #take()}, in a {@link Lease} releasing it to its shard when
+     * closed
+     * 
+     * @return the {@link Lease} of one &lt;T&gt;
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public final Lease<T> lease() {
+        return this.take((shard, resource) -> shard.pool.newLease(resource));
+    }
+
+    /**
+     * Take one unused resource without blocking, from any shard having one available, else once a resource
+     * is released to any shard. See {@link GenericResourcePool#takeAsync()}. Cancelling the future, or
+     * completing it by a timeout, gives up the take.
+     * 
+     * @return the future of one &lt;T&gt;
+     */
+    public final CompletableFuture<T> takeAsync() {
+        if (this.shards.length > 1) {
+            final CompletableFuture<T> future = new CompletableFuture<T>();
+            this.asyncWaitersLock.lock();
+            try {
+                this.asyncWaiters.addLast(future);
+            } finally {
+                this.asyncWaitersLock.unlock();
+            }
+            this.serveAsyncWaiters();
+            return future;
+        }
+        final Shard<T> shard = this.shards[0];
+        final CompletableFuture<T> take = shard.pool.takeAsync();
+        final CompletableFuture<T> future = take.thenApply(resource -> {
+            shard.takes.incrementAndGet();
+            return resource;
+        });
+        future.whenComplete((resource, failure) -> {
+            // the take of the shard is given up with the returned future
+            if (failure != null && !take.cancel(false) && !take.isCompletedExceptionally()) {
+                // the resource was obtained meanwhile
+                shard.pool.release(take.join());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Release the specified resource to the shard it was taken from
+     * 
+     * @param resource
+     *            The resource to release
+     */
+    public final void release(final T resource) {
+        if (this.shards.length == 1) {
+            this.shards[0].pool.release(resource);
+            return;
+        }
+        final int home = this.homeShard();
+        for (int i = 0; i < this.shards.length; i++) {
+            if (this.shards[(home + i) % this.shards.length].pool.tryRelease(resource)) {
+                this.serveAsyncWaiters();
+                return;
+            }
+        }
+        LOG.log(Level.WARNING, "The released resource was not taken from the pool or is already released: {0}",
+                resource);
+    }
+
+    /**
+     * Give the available resources to the asynchronous takes waiting, in order
+     */
+    private void serveAsyncWaiters() {
+        final List<CompletableFuture<T>> served = new ArrayList<CompletableFuture<T>>();
+        final List<T> resources = new ArrayList<T>();
+        CompletableFuture<T> failed = null;
+        RuntimeException failure = null;
+        this.asyncWaitersLock.lock();
+        try {
+            // the waiter stays in the queue until it gets a resource, so that a release concurrent to a
+            // failed attempt finds it and serves it once this one is over
+            CompletableFuture<T> waiter;
+            while ((waiter = this.asyncWaiters.peekFirst()) != null) {
+                if (!waiter.isDone()) {
+                    final T resource;
+                    try {
+                        resource = this.tryTakeAny(this.homeShard(), (shard, taken) -> taken);
+                    } catch (final InterruptedException e) {
+                        // a try without wait is not interrupted
+                        throw new PoolException(e);
+                    } catch (final RuntimeException e) {
+                        // the resource could not be created
+                        failed = this.asyncWaiters.pollFirst();
+                        failure = e;
+                        break;
+                    }
+                    if (resource == null) {
+                        break;
+                    }
+                    served.add(waiter);
+                    resources.add(resource);
+                }
+                // served, cancelled or timed out
+                this.asyncWaiters.pollFirst();
+            }
+        } finally {
+            this.asyncWaitersLock.unlock();
+        }
+
+        // the futures are completed without the lock, their actions may use the pool
+        for (int i = 0; i < served.size(); i++) {
+            if (!served.get(i).complete(resources.get(i))) {
+                // given up meanwhile
+                this.release(resources.get(i));
+            }
+        }
+        if (failed != null) {
+            failed.completeExceptionally(failure);
+            // the next waiters may get a resource
+            this.serveAsyncWaiters();
+        }
+    }
+
+    /**
+     * @return the current state of each shard
+     */
+    public List<ShardMetrics> getShardMetrics() {
+        final List<ShardMetrics> metrics = new ArrayList<ShardMetrics>(this.shards.length);
+        for (final Shard<T> shard : this.shards) {
+            metrics.add(new ShardMetrics(shard.pool.getInUseCount(), shard.pool.getIdleCount(),
+                    shard.pool.getMaxSize(), shard.takes.get(), shard.steals.get()));
+        }
+        return metrics;
+    }
+
+    private <R> R take(final BiFunction<Shard<T>, T, R> result) {
+        if (this.shards.length == 1) {
+            final Shard<T> shard = this.shards[0];
+            final T resource = shard.pool.take();
+            shard.takes.incrementAndGet();
+            return result.apply(shard, resource);
+        }
+        final int home = this.homeShard();
+        try {
+            R taken = this.tryTakeAny(home, result);
+            if (taken != null) {
+                return taken;
+            }
+            if (this.poolPolicy == PoolPolicy.REJECT) {
+                throw new PoolException("There is no more available resource in the pool.");
+            }
+            // polled, see the class documentation
+            final Shard<T> shard = this.shards[home];
+            while (true) {
+                final T resource = shard.pool.tryTake(STEAL_PERIOD_MS, TimeUnit.MILLISECONDS);
+                if (resource != null) {
+                    shard.takes.incrementAndGet();
+                    return result.apply(shard, resource);
+                }
+                taken = this.tryTakeAny(home, result);
+                if (taken != null) {
+                    return taken;
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new PoolException(e);
+        }
+    }
+
+    /**
+     * Take an available resource, from the shard of the thread first
+     * 
+     * @return null if no shard has a resource available
+     */
+    private <R> R tryTakeAny(final int home, final BiFunction<Shard<T>, T, R> result)
+            throws InterruptedException {
+        for (int i = 0; i < this.shards.length; i++) {
+            final Shard<T> shard = this.shards[(home + i) % this.shards.length];
+            final T resource = shard.pool.tryTake(0, TimeUnit.MILLISECONDS);
+            if (resource != null) {
+                shard.takes.incrementAndGet();
+                if (i > 0) {
+                    shard.steals.incrementAndGet();
+                }
+                return result.apply(shard, resource);
+            }
+        }
+        return null;
+    }
+
+    private int homeShard() {
+        // the thread ids are mixed, so that the threads created one after the other use different shards
+        final long mixed = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) ((mixed >>> 32) % this.shards.length);
+    }
+}
@@ -15,19 +15,19 @@
  */
 package com.ebmwebsourcing.easycommons.registry;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * This is a generic implementation of a resource registry. All methods that
- * alter registry state are thread safe.
+ * This is a generic implementation of a resource registry. All methods are
+ * thread safe, without lock.
  * 
  * @author ofabre
  * 
  */
 public class ResourceRegistry<T> {
 
-    private Map<String, T> registry = new HashMap<String, T>();
+    private final ConcurrentMap<String, T> registry = new ConcurrentHashMap<String, T>();
 
     /**
      * 
@@ -38,15 +38,13 @@ public class ResourceRegistry<T> {
      * @throws KeyAlreadyBoundException
      *             if the provided key is already bound to a registered object
      */
-    public synchronized void register(String key, T resource) {
+    public void register(String key, T resource) {
         assert key != null;
         assert resource != null;
 
-        T previouslyMappedRessource = registry.get(key);
+        T previouslyMappedRessource = registry.putIfAbsent(key, resource);
         if (previouslyMappedRessource != null) {
             throw new KeyAlreadyBoundException("The provided key is already bound: " + key);
-        } else {
-            registry.put(key, resource);
         }
     }
 
@@ -57,14 +55,12 @@ public class ResourceRegistry<T> {
      * @throws KeyNotFoundException
      *             if the provided key isn't found in registry
      */
-    public synchronized void unregister(String key) {
+    public void unregister(String key) {
         assert key != null;
 
-        T previouslyMappedRessource = registry.get(key);
+        T previouslyMappedRessource = registry.remove(key);
         if (previouslyMappedRessource == null) {
             throw new KeyNotFoundException("The given key isn't found in registry: " + key);
-        } else {
-            registry.remove(key);
         }
     }
 
@@ -15,11 +15,13 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Path;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -36,6 +38,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import com.ebmwebsourcing.easycommons.lang.UncheckedException;
@@ -77,7 +80,7 @@ public class DOMHelper {
         
         try {
             documentBuilder = DocumentBuilders.takeDocumentBuilder();            
-            Document doc = documentBuilder.parse(is);
+            Document doc = DocumentBuilders.parse(documentBuilder, new InputSource(is));
             DOMSource domSource = new DOMSource(doc);
             return domSource;
         } catch (SAXException se) {
@@ -101,7 +104,7 @@ public class DOMHelper {
             assert resourceURL != null;
             
             documentBuilder = DocumentBuilders.takeDocumentBuilder();            
-            Document doc = documentBuilder.parse(resourceURL.toURI().toString());
+            Document doc = DocumentBuilders.parse(documentBuilder, new InputSource(resourceURL.toURI().toString()));
 
             DOMSource domSource = new DOMSource(doc);
             domSource.setSystemId(resourceURL.toString());
@@ -122,6 +125,43 @@ public class DOMHelper {
         }
     }
 
+    /**
+     * Parse a file, mapped in memory if it is big enough so that the parser reads it without copying it
+     * through read system calls
+     * 
+     * @param file
+     *            the file to parse
+     * @return the parsed document, whose system id is the URI of the file
+     */
+    public static DOMSource parseAsDOMSource(final File file) {
+        assert file != null;
+        return parseAsDOMSource(file.toPath());
+    }
+
+    /**
+     * Parse a file, mapped in memory if it is big enough so that the parser reads it without copying it
+     * through read system calls
+     * 
+     * @param path
+     *            the file to parse
+     * @return the parsed document, whose system id is the URI of the file
+     */
+    public static DOMSource parseAsDOMSource(final Path path) {
+        assert path != null;
+        final String systemId = path.toUri().toString();
+        try (InputStream is = MappedInputStream.open(path)) {
+            final InputSource inputSource = new InputSource(is);
+            inputSource.setSystemId(systemId);
+            final DOMSource domSource = new DOMSource(DocumentBuilders.parse(inputSource));
+            domSource.setSystemId(systemId);
+            return domSource;
+        } catch (SAXException se) {
+            throw new RuntimeException(se);
+        } catch (IOException ioe) {
+            throw new UncheckedException(String.format("Cannot read file '%s'", path), ioe);
+        }
+    }
+
     public static Node stripEmptyTextNodes(Node node) {
         XPathFactory xpathFactory = XPathFactory.newInstance();
         final String xpathStr = "//text()[normalize-space(.) = '']";
@@ -242,7 +282,7 @@ public class DOMHelper {
         
         try {
             transformer = Transformers.takeTransformer();
-            transformer.transform(new DOMSource(node), new StreamResult(os));
+            Transformers.transform(transformer, new DOMSource(node), new StreamResult(os));
         } catch (TransformerException e) {
             throw new RuntimeException(e);
         } finally {
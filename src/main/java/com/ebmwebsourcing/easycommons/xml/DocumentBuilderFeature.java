@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Optional features of the {@link DocumentBuilder} provided by the
+ * {@link DocumentBuilderResourcePool}. The {@link DocumentBuilder} are always
+ * namespace aware.
+ */
+public enum DocumentBuilderFeature {
+
+    /**
+     * The {@link DocumentBuilder} validates the documents as they are parsed
+     */
+    VALIDATING {
+        @Override
+        void configure(final DocumentBuilderFactory documentBuilderFactory) {
+            documentBuilderFactory.setValidating(true);
+        }
+    },
+
+    /**
+     * The {@link DocumentBuilder} processes the documents securely (limits on
+     * entity expansion, no external access, ...)
+     */
+    SECURE_PROCESSING {
+        @Override
+        void configure(final DocumentBuilderFactory documentBuilderFactory) throws ParserConfigurationException {
+            documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        }
+    },
+
+    /**
+     * The {@link DocumentBuilder} converts the CDATA nodes to text nodes and
+     * appends them to the adjacent text nodes
+     */
+    COALESCING {
+        @Override
+        void configure(final DocumentBuilderFactory documentBuilderFactory) {
+            documentBuilderFactory.setCoalescing(true);
+        }
+    };
+
+    abstract void configure(final DocumentBuilderFactory documentBuilderFactory)
+            throws ParserConfigurationException;
+}
@@ -15,11 +15,17 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
 import com.ebmwebsourcing.easycommons.pooling.GenericResourcePool;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 import com.ebmwebsourcing.easycommons.pooling.ResourceHandler;
@@ -39,13 +45,20 @@ public class DocumentBuilderResourcePool {
 
         final DocumentBuilderFactory documentBuilderFactory;
 
-        public DocumentBuilderResourceHandler() {
+        public DocumentBuilderResourceHandler(final Set<DocumentBuilderFeature> features) {
             this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
             documentBuilderFactory.setNamespaceAware(true);
+            try {
+                for (final DocumentBuilderFeature feature : features) {
+                    feature.configure(this.documentBuilderFactory);
+                }
+            } catch (ParserConfigurationException e) {
+                throw new PoolException(e);
+            }
         }
 
         @Override
-        public DocumentBuilder create() {
+        public synchronized DocumentBuilder create() {
             try {
                 return this.documentBuilderFactory.newDocumentBuilder();
             } catch (ParserConfigurationException e) {
@@ -59,7 +72,9 @@ public class DocumentBuilderResourcePool {
         }
 
         @Override
-        public void onTake(DocumentBuilder documentBuilder) {            
+        public void onTake(DocumentBuilder documentBuilder) {
+            // a released builder is reset to the default handler, printing the errors
+            documentBuilder.setErrorHandler(ThrowingErrorHandler.INSTANCE);
         }
     }
     
@@ -81,7 +96,33 @@ public class DocumentBuilderResourcePool {
      */
     public DocumentBuilderResourcePool(int minPoolSize, int maxPoolSize,
             PoolPolicy poolPolicy) {
-        DocumentBuilderResourceHandler documentBuilderResourceHandler = new DocumentBuilderResourceHandler();
+        this(minPoolSize, maxPoolSize, poolPolicy, EnumSet.noneOf(DocumentBuilderFeature.class));
+    }
+
+    /**
+     * Allowing to instantiate a new {@link DocumentBuilderResourcePool} containing {@link DocumentBuilder} resources
+     * configured with the specified features.
+     * 
+     * @param minPoolSize
+     *            The minimum number of {@link DocumentBuilder} instances in the pool (created at the
+     *            initialization).
+     * @param maxPoolSize
+     *            the maximum number of {@link DocumentBuilder} instances in the current pool (limit of the
+     *            pool). It must be greater or equals to the specified minSize.
+     *            The maximum value is Integer.MAX_VALUE
+     * @param poolPolicy
+     *            the {@link PoolPolicy} to adopt when the maximum size is reached. it
+     *            cannot be null.
+     * @param features
+     *            the {@link DocumentBuilderFeature} enabled on the {@link DocumentBuilder} of the pool. it
+     *            cannot be null.
+     * 
+     * @throws PoolException
+     *             if a feature is not supported by the {@link DocumentBuilderFactory}
+     */
+    public DocumentBuilderResourcePool(int minPoolSize, int maxPoolSize,
+            PoolPolicy poolPolicy, Set<DocumentBuilderFeature> features) {
+        DocumentBuilderResourceHandler documentBuilderResourceHandler = new DocumentBuilderResourceHandler(features);
         this.documentBuilderResourcePool = new GenericResourcePool<DocumentBuilder>(
                 documentBuilderResourceHandler, minPoolSize, maxPoolSize, poolPolicy);
     }
@@ -104,6 +145,33 @@ public class DocumentBuilderResourcePool {
         return this.documentBuilderResourcePool.take();
     }
 
+    /**
+     * Take one unused {@link DocumentBuilder} in the current pool, in a {@link Lease}
+     * releasing it when closed.
+     * 
+     * @return the {@link Lease} of one {@link DocumentBuilder}
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public Lease<DocumentBuilder> lease() {
+        return this.documentBuilderResourcePool.lease();
+    }
+
+    /**
+     * Take one unused {@link DocumentBuilder} in the current pool without blocking. If none is
+     * available, the returned future is completed when one is released.
+     * 
+     * @return the future of one {@link DocumentBuilder}, completed exceptionally by a
+     *         {@link PoolException} if there is no more available resource in the pool
+     *         for the pool policy REJECT
+     */
+    public CompletableFuture<DocumentBuilder> takeAsync() {
+        return this.documentBuilderResourcePool.takeAsync();
+    }
+
     /**
      * Release the specified {@link DocumentBuilder} After putting back the
      * {@link DocumentBuilder} in the pool, the method onRelease() of the
@@ -115,4 +183,15 @@ public class DocumentBuilderResourcePool {
     public final void release(final DocumentBuilder documentBuilder) {
         this.documentBuilderResourcePool.release(documentBuilder);
     }
+
+    /**
+     * Adapt the size of the pool to the load
+     * 
+     * @param adaptiveSizing
+     *            the settings of the adaptive sizing, null to disable it
+     * @see GenericResourcePool#setAdaptiveSizing(AdaptiveSizing)
+     */
+    public void setAdaptiveSizing(final AdaptiveSizing adaptiveSizing) {
+        this.documentBuilderResourcePool.setAdaptiveSizing(adaptiveSizing);
+    }
 }
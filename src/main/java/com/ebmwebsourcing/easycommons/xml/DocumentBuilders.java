@@ -15,17 +15,29 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 
 /**
  * A static pool of {@link DocumentBuilder} to improve {@link DocumentBuilder} creation efficiency. 
  * A {@link DocumentBuilder} is initialized the first time this class is used.
- * An infinite number (integer maximum value) of {@link DocumentBuilder} may be created. They are never evicted.
+ * An infinite number (integer maximum value) of {@link DocumentBuilder} may be created.
+ * The idle ones are evicted when the load decreases (see {@link AdaptiveSizing#forUnboundedPool()}).
  * 
  * @author Nicolas Oddoux - EBM WebSourcing
  */
@@ -33,6 +45,13 @@ public final class DocumentBuilders {
 
     private static final DocumentBuilderResourcePool documentBuilderPool = new DocumentBuilderResourcePool(1, Integer.MAX_VALUE, PoolPolicy.WAIT);
 
+    static {
+        documentBuilderPool.setAdaptiveSizing(AdaptiveSizing.forUnboundedPool());
+    }
+
+    // the pools of DocumentBuilder with optional features, one per set of features
+    private static final ConcurrentMap<Set<DocumentBuilderFeature>, DocumentBuilderResourcePool> documentBuilderPoolsByFeatures = new ConcurrentHashMap<Set<DocumentBuilderFeature>, DocumentBuilderResourcePool>();
+
     /**
      * Take a {@link DocumentBuilder} from the pool
      * 
@@ -55,6 +74,168 @@ public final class DocumentBuilders {
         documentBuilderPool.release(documentBuilder);
     }
 
+    /**
+     * Take a {@link DocumentBuilder} from the pool, in a {@link Lease} releasing it
+     * when closed:
+     * 
+     * <pre>
+     * try (Lease&lt;DocumentBuilder&gt; lease = leaseDocumentBuilder()) {
+     *     // use lease.get()
+     * }
+     * </pre>
+     * 
+     * @return the {@link Lease} of one {@link DocumentBuilder}
+     * 
+     * @throws PoolException
+     *             if the current thread waits for a {@link DocumentBuilder}
+     *             of the pool and is interrupted
+     */
+    public final static Lease<DocumentBuilder> leaseDocumentBuilder() throws PoolException {
+        return documentBuilderPool.lease();
+    }
+
+    /**
+     * Take a {@link DocumentBuilder} with the specified features from the pool
+     * dedicated to these features, in a {@link Lease} releasing it when closed
+     * 
+     * @param features
+     *            the features of the {@link DocumentBuilder}
+     * @return the {@link Lease} of one {@link DocumentBuilder}
+     * 
+     * @throws PoolException
+     *             if the current thread waits for a {@link DocumentBuilder} of
+     *             the pool and is interrupted, or if a feature is not supported
+     */
+    public final static Lease<DocumentBuilder> leaseDocumentBuilder(final DocumentBuilderFeature... features)
+            throws PoolException {
+        return getDocumentBuilderPool(features).lease();
+    }
+
+    /**
+     * Take a {@link DocumentBuilder} with the specified features from the pool
+     * dedicated to these features. The {@link DocumentBuilder} must be released
+     * with {@link #releaseDocumentBuilder(DocumentBuilder, DocumentBuilderFeature...)}
+     * and the same features.
+     * 
+     * @param features
+     *            the features of the {@link DocumentBuilder}
+     * @return one {@link DocumentBuilder}
+     * 
+     * @throws PoolException
+     *             if the current thread waits for a {@link DocumentBuilder} of
+     *             the pool and is interrupted, or if a feature is not supported
+     */
+    public final static DocumentBuilder takeDocumentBuilder(final DocumentBuilderFeature... features)
+            throws PoolException {
+        return getDocumentBuilderPool(features).take();
+    }
+
+    /**
+     * Release a {@link DocumentBuilder} taken with
+     * {@link #takeDocumentBuilder(DocumentBuilderFeature...)} to the pool
+     * dedicated to its features
+     * 
+     * @param documentBuilder
+     *            a {@link DocumentBuilder} to release
+     * @param features
+     *            the features used to take the {@link DocumentBuilder}
+     */
+    public final static void releaseDocumentBuilder(final DocumentBuilder documentBuilder,
+            final DocumentBuilderFeature... features) {
+        getDocumentBuilderPool(features).release(documentBuilder);
+    }
+
+    /**
+     * Parse an {@link InputSource} with a {@link DocumentBuilder} of the pool
+     * dedicated to the specified features
+     * 
+     * @param inputSource
+     *            the {@link InputSource} to parse
+     * @param features
+     *            the features of the {@link DocumentBuilder} to use
+     * @return the parsed {@link Document}
+     * 
+     * @throws SAXException
+     *             if a parse error occurs
+     * @throws IOException
+     *             if an I/O error occurs
+     * @throws PoolException
+     *             if the current thread waits for a {@link DocumentBuilder} of
+     *             the pool and is interrupted, or if a feature is not supported
+     */
+    public final static Document parse(final InputSource inputSource, final DocumentBuilderFeature... features)
+            throws SAXException, IOException {
+        try (Lease<DocumentBuilder> lease = leaseDocumentBuilder(features)) {
+            return parse(lease.get(), inputSource);
+        }
+    }
+
+    /**
+     * Parse an {@link InputSource} with a {@link DocumentBuilder}, recording a
+     * Flight Recorder event of the parsing when it is enabled at its start. A
+     * recording started during the parsing does not record it.
+     * 
+     * @param documentBuilder
+     *            the {@link DocumentBuilder}, usually taken from the pool
+     * @param inputSource
+     *            the {@link InputSource} to parse
+     * @return the parsed {@link Document}
+     * 
+     * @throws SAXException
+     *             if a parse error occurs
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public final static Document parse(final DocumentBuilder documentBuilder, final InputSource inputSource)
+            throws SAXException, IOException {
+        final ParseEvent event = new ParseEvent();
+        if (!event.isEnabled() || inputSource == null) {
+            return documentBuilder.parse(inputSource);
+        }
+
+        InputSource countedInputSource = inputSource;
+        CountingInputStream counter = null;
+        if (inputSource.getByteStream() != null && inputSource.getCharacterStream() == null) {
+            counter = new CountingInputStream(inputSource.getByteStream());
+            countedInputSource = new InputSource(counter);
+            countedInputSource.setSystemId(inputSource.getSystemId());
+            countedInputSource.setPublicId(inputSource.getPublicId());
+            countedInputSource.setEncoding(inputSource.getEncoding());
+        }
+        event.begin();
+        try {
+            return documentBuilder.parse(countedInputSource);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.systemId = inputSource.getSystemId();
+                if (counter != null) {
+                    event.payloadSize = counter.getCount();
+                }
+                event.commit();
+            }
+        }
+    }
+
+    private static DocumentBuilderResourcePool getDocumentBuilderPool(final DocumentBuilderFeature... features) {
+        if (features.length == 0) {
+            return documentBuilderPool;
+        }
+        final Set<DocumentBuilderFeature> featureSet = EnumSet.noneOf(DocumentBuilderFeature.class);
+        Collections.addAll(featureSet, features);
+        DocumentBuilderResourcePool pool = documentBuilderPoolsByFeatures.get(featureSet);
+        if (pool == null) {
+            final DocumentBuilderResourcePool newPool = new DocumentBuilderResourcePool(1, Integer.MAX_VALUE,
+                    PoolPolicy.WAIT, featureSet);
+            pool = documentBuilderPoolsByFeatures.putIfAbsent(featureSet, newPool);
+            if (pool == null) {
+                newPool.setAdaptiveSizing(AdaptiveSizing.forUnboundedPool());
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
     /**
      * Create a new {@link Document} (with a {@link DocumentBuilder} of the
      * pool)
@@ -69,11 +250,8 @@ public final class DocumentBuilders {
      *             {@link PoolPolicy} is REJECT
      */
     public final static Document newDocument() {
-        final DocumentBuilder documentBuilder = takeDocumentBuilder();
-        try {
-            return documentBuilder.newDocument();
-        } finally{
-            releaseDocumentBuilder(documentBuilder);
+        try (Lease<DocumentBuilder> lease = leaseDocumentBuilder()) {
+            return lease.get().newDocument();
         }
     }
 }
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import com.ebmwebsourcing.easycommons.stream.EasyByteArrayOutputStream;
+
+/**
+ * An {@link OutputStream} buffering the written bytes in memory until a
+ * threshold is reached, and then in a temporary file. The buffered bytes are
+ * read back with {@link #toInputStream()}, by mapping the temporary file in
+ * memory if the threshold has been reached.
+ * <p>
+ * The temporary file is deleted when the {@link InputStream} returned by
+ * {@link #toInputStream()} is closed (or as soon as it is opened if the
+ * platform allows it), or by {@link #discard()}.
+ * </p>
+ */
+public class FileBackedOutputStream extends OutputStream {
+
+    /**
+     * The default threshold, in bytes, above which the written bytes are
+     * buffered in a temporary file. It can be set with the system property
+     * {@code com.ebmwebsourcing.easycommons.xml.FileBackedOutputStream.threshold}.
+     */
+    public static final long DEFAULT_THRESHOLD = Long.getLong(FileBackedOutputStream.class.getName() + ".threshold",
+            16L * 1024 * 1024);
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    private final long threshold;
+
+    private EasyByteArrayOutputStream memory = new EasyByteArrayOutputStream();
+
+    private File file;
+
+    private OutputStream fileOutputStream;
+
+    private long count = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Create a {@link FileBackedOutputStream} with the {@link #DEFAULT_THRESHOLD}
+     */
+    public FileBackedOutputStream() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Create a {@link FileBackedOutputStream}
+     *
+     * @param threshold
+     *            the number of bytes above which the written bytes are
+     *            buffered in a temporary file
+     */
+    public FileBackedOutputStream(final long threshold) {
+        assert threshold >= 0;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        this.ensureCapacity(1);
+        if (this.fileOutputStream != null) {
+            this.fileOutputStream.write(b);
+        } else {
+            this.memory.write(b);
+        }
+        this.count++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        this.ensureCapacity(len);
+        if (this.fileOutputStream != null) {
+            this.fileOutputStream.write(b, off, len);
+        } else {
+            this.memory.write(b, off, len);
+        }
+        this.count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.fileOutputStream != null) {
+            this.fileOutputStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            if (this.fileOutputStream != null) {
+                this.fileOutputStream.close();
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public long size() {
+        return this.count;
+    }
+
+    /**
+     * @return true if the written bytes are buffered in a temporary file
+     */
+    public boolean isInFile() {
+        return this.file != null;
+    }
+
+    /**
+     * Get an {@link InputStream} on the written bytes. The stream is closed
+     * if needed, and no more bytes can be written.
+     *
+     * @return an {@link InputStream} on the written bytes
+     * @throws IOException
+     *             if the temporary file can't be read
+     */
+    public InputStream toInputStream() throws IOException {
+        this.close();
+        if (this.file == null) {
+            return this.memory.toByteArrayInputStream();
+        } else {
+            final File mappedFile = this.file;
+            this.file = null;
+            return MappedInputStream.openTemporary(mappedFile);
+        }
+    }
+
+    /**
+     * Get the written bytes. The stream is closed if needed, and no more bytes
+     * can be written. The temporary file, if any, is deleted.
+     *
+     * @return the written bytes
+     * @throws IOException
+     *             if the temporary file can't be read or is too large for an
+     *             array
+     */
+    public byte[] toByteArray() throws IOException {
+        this.close();
+        if (this.file == null) {
+            return this.memory.toRawByteArray();
+        }
+        if (this.count > Integer.MAX_VALUE - 8) {
+            throw new IOException("Too many bytes for an array: " + this.count);
+        }
+        try {
+            return Files.readAllBytes(this.file.toPath());
+        } finally {
+            this.discard();
+        }
+    }
+
+    /**
+     * Release the buffered bytes, deleting the temporary file if any.
+     */
+    public void discard() {
+        try {
+            this.close();
+        } catch (final IOException e) {
+            // the buffered bytes are dropped anyway
+        }
+        this.memory = new EasyByteArrayOutputStream(0);
+        if (this.file != null) {
+            this.file.delete();
+            this.file = null;
+        }
+    }
+
+    private void ensureCapacity(final int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if (this.fileOutputStream == null && this.count + len > this.threshold) {
+            this.file = File.createTempFile("easycommons-", ".tmp");
+            try {
+                this.fileOutputStream = new BufferedOutputStream(new FileOutputStream(this.file), FILE_BUFFER_SIZE);
+                this.memory.writeTo(this.fileOutputStream);
+            } catch (final IOException e) {
+                this.discard();
+                throw e;
+            }
+            this.memory = new EasyByteArrayOutputStream(0);
+        }
+    }
+}
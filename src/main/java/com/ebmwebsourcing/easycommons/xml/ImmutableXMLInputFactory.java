@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.stream.EventFilter;
+import javax.xml.stream.StreamFilter;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLReporter;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.XMLEventAllocator;
+import javax.xml.transform.Source;
+
+/**
+ * A configured {@link XMLInputFactory} shared by several threads, which cannot be configured anymore
+ */
+final class ImmutableXMLInputFactory extends XMLInputFactory {
+
+    private final XMLInputFactory factory;
+
+    ImmutableXMLInputFactory(final XMLInputFactory factory) {
+        this.factory = factory;
+    }
+
+    private static UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException(
+                "A shared XMLInputFactory cannot be configured, get one with its configuration from XMLInputFactories");
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(final Reader reader) throws XMLStreamException {
+        return this.factory.createXMLStreamReader(reader);
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(final Source source) throws XMLStreamException {
+        return this.factory.createXMLStreamReader(source);
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(final InputStream stream) throws XMLStreamException {
+        return this.factory.createXMLStreamReader(stream);
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(final InputStream stream, final String encoding)
+            throws XMLStreamException {
+        return this.factory.createXMLStreamReader(stream, encoding);
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(final String systemId, final InputStream stream)
+            throws XMLStreamException {
+        return this.factory.createXMLStreamReader(systemId, stream);
+    }
+
+    @Override
+    public XMLStreamReader createXMLStreamReader(final String systemId, final Reader reader)
+            throws XMLStreamException {
+        return this.factory.createXMLStreamReader(systemId, reader);
+    }
+
+    @Override
+    public XMLEventReader createXMLEventReader(final Reader reader) throws XMLStreamException {
+        return this.factory.createXMLEventReader(reader);
+    }
+
+    @Override
+    public XMLEventReader createXMLEventReader(final String systemId, final Reader reader)
+            throws XMLStreamException {
+        return this.factory.createXMLEventReader(systemId, reader);
+    }
+
+    @Override
+    public XMLEventReader createXMLEventReader(final XMLStreamReader reader) throws XMLStreamException {
+        return this.factory.createXMLEventReader(reader);
+    }
+
+    @Override
+    public XMLEventReader createXMLEventReader(final Source source) throws XMLStreamException {
+        return this.factory.createXMLEventReader(source);
+    }
+
+    @Override
+    public XMLEventReader createXMLEventReader(final InputStream stream) throws XMLStreamException {
+        return this.factory.createXMLEventReader(stream);
+    }
+
+    @Override
+    public XMLEventReader createXMLEventReader(final InputStream stream, final String encoding)
+            throws XMLStreamException {
+        return this.factory.createXMLEventReader(stream, encoding);
+    }
+
+    @Override
+    public XMLEventReader createXMLEventReader(final String systemId, final InputStream stream)
+            throws XMLStreamException {
+        return this.factory.createXMLEventReader(systemId, stream);
+    }
+
+    @Override
+    public XMLStreamReader createFilteredReader(final XMLStreamReader reader, final StreamFilter filter)
+            throws XMLStreamException {
+        return this.factory.createFilteredReader(reader, filter);
+    }
+
+    @Override
+    public XMLEventReader createFilteredReader(final XMLEventReader reader, final EventFilter filter)
+            throws XMLStreamException {
+        return this.factory.createFilteredReader(reader, filter);
+    }
+
+    @Override
+    public XMLResolver getXMLResolver() {
+        return this.factory.getXMLResolver();
+    }
+
+    @Override
+    public void setXMLResolver(final XMLResolver resolver) {
+        throw immutable();
+    }
+
+    @Override
+    public XMLReporter getXMLReporter() {
+        return this.factory.getXMLReporter();
+    }
+
+    @Override
+    public void setXMLReporter(final XMLReporter reporter) {
+        throw immutable();
+    }
+
+    @Override
+    public void setProperty(final String name, final Object value) {
+        throw immutable();
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return this.factory.getProperty(name);
+    }
+
+    @Override
+    public boolean isPropertySupported(final String name) {
+        return this.factory.isPropertySupported(name);
+    }
+
+    @Override
+    public void setEventAllocator(final XMLEventAllocator allocator) {
+        throw immutable();
+    }
+
+    @Override
+    public XMLEventAllocator getEventAllocator() {
+        return this.factory.getEventAllocator();
+    }
+}
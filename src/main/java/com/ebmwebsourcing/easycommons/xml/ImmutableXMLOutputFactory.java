@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.OutputStream;
+import java.io.Writer;
+
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+
+/**
+ * A configured {@link XMLOutputFactory} shared by several threads, which cannot be configured anymore
+ */
+final class ImmutableXMLOutputFactory extends XMLOutputFactory {
+
+    private final XMLOutputFactory factory;
+
+    ImmutableXMLOutputFactory(final XMLOutputFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(final Writer stream) throws XMLStreamException {
+        return this.factory.createXMLStreamWriter(stream);
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(final OutputStream stream) throws XMLStreamException {
+        return this.factory.createXMLStreamWriter(stream);
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(final OutputStream stream, final String encoding)
+            throws XMLStreamException {
+        return this.factory.createXMLStreamWriter(stream, encoding);
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(final Result result) throws XMLStreamException {
+        return this.factory.createXMLStreamWriter(result);
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(final Result result) throws XMLStreamException {
+        return this.factory.createXMLEventWriter(result);
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(final OutputStream stream) throws XMLStreamException {
+        return this.factory.createXMLEventWriter(stream);
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(final OutputStream stream, final String encoding)
+            throws XMLStreamException {
+        return this.factory.createXMLEventWriter(stream, encoding);
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(final Writer stream) throws XMLStreamException {
+        return this.factory.createXMLEventWriter(stream);
+    }
+
+    @Override
+    public void setProperty(final String name, final Object value) {
+        throw new UnsupportedOperationException(
+                "A shared XMLOutputFactory cannot be configured, get one with its configuration from XMLOutputFactories");
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return this.factory.getProperty(name);
+    }
+
+    @Override
+    public boolean isPropertySupported(final String name) {
+        return this.factory.isPropertySupported(name);
+    }
+}
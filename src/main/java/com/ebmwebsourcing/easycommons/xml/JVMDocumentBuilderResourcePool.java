@@ -15,11 +15,15 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
 import com.ebmwebsourcing.easycommons.pooling.GenericResourcePool;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 import com.ebmwebsourcing.easycommons.pooling.ResourceHandler;
@@ -55,7 +59,7 @@ public class JVMDocumentBuilderResourcePool {
         }
 
         @Override
-        public DocumentBuilder create() {
+        public synchronized DocumentBuilder create() {
             try {
                 return this.jvmDocumentBuilderFactory.newDocumentBuilder();
             } catch (ParserConfigurationException e) {
@@ -68,7 +72,9 @@ public class JVMDocumentBuilderResourcePool {
         }
 
         @Override
-        public void onTake(DocumentBuilder jvmDocumentBuilder) {            
+        public void onTake(DocumentBuilder jvmDocumentBuilder) {
+            // a released builder is reset to the default handler, printing the errors
+            jvmDocumentBuilder.setErrorHandler(ThrowingErrorHandler.INSTANCE);
         }
     }
     
@@ -113,6 +119,33 @@ public class JVMDocumentBuilderResourcePool {
         return this.jvmDocumentBuilderResourcePool.take();
     }
 
+    /**
+     * Take one unused JVM {@link DocumentBuilder} in the current pool, in a {@link Lease}
+     * releasing it when closed.
+     * 
+     * @return the {@link Lease} of one JVM {@link DocumentBuilder}
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public Lease<DocumentBuilder> lease() {
+        return this.jvmDocumentBuilderResourcePool.lease();
+    }
+
+    /**
+     * Take one unused {@link DocumentBuilder} in the current pool without blocking. If none is
+     * available, the returned future is completed when one is released.
+     * 
+     * @return the future of one {@link DocumentBuilder}, completed exceptionally by a
+     *         {@link PoolException} if there is no more available resource in the pool
+     *         for the pool policy REJECT
+     */
+    public CompletableFuture<DocumentBuilder> takeAsync() {
+        return this.jvmDocumentBuilderResourcePool.takeAsync();
+    }
+
     /**
      * Release the specified JVM {@link DocumentBuilder} After putting back the
      * JVM {@link DocumentBuilder} in the pool, the method onRelease() of the
@@ -124,4 +157,15 @@ public class JVMDocumentBuilderResourcePool {
     public final void release(final DocumentBuilder jvmDocumentBuilder) {
         this.jvmDocumentBuilderResourcePool.release(jvmDocumentBuilder);
     }
+
+    /**
+     * Adapt the size of the pool to the load
+     * 
+     * @param adaptiveSizing
+     *            the settings of the adaptive sizing, null to disable it
+     * @see GenericResourcePool#setAdaptiveSizing(AdaptiveSizing)
+     */
+    public void setAdaptiveSizing(final AdaptiveSizing adaptiveSizing) {
+        this.jvmDocumentBuilderResourcePool.setAdaptiveSizing(adaptiveSizing);
+    }
 }
@@ -19,6 +19,8 @@ import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 
@@ -26,7 +28,8 @@ import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
  * A static pool of JVM {@link DocumentBuilder} to improve JVM {@link DocumentBuilder} creation efficiency. 
  * <p>
  * A JVM {@link DocumentBuilder} is initialized the first time this class is used.
- * An infinite number (integer maximum value) of JVM {@link DocumentBuilder} may be created. They are never evicted.
+ * An infinite number (integer maximum value) of JVM {@link DocumentBuilder} may be created.
+ * The idle ones are evicted when the load decreases (see {@link AdaptiveSizing#forUnboundedPool()}).
  * </p>
  * 
  * @author Nicolas Oddoux - EBM WebSourcing
@@ -35,6 +38,10 @@ public final class JVMDocumentBuilders {
 
     private static final JVMDocumentBuilderResourcePool jvmDocumentBuilderPool = new JVMDocumentBuilderResourcePool(1, Integer.MAX_VALUE, PoolPolicy.WAIT);
 
+    static {
+        jvmDocumentBuilderPool.setAdaptiveSizing(AdaptiveSizing.forUnboundedPool());
+    }
+
     /**
      * Take a JVM {@link DocumentBuilder} from the pool
      * 
@@ -56,6 +63,26 @@ public final class JVMDocumentBuilders {
     public final static void releaseJVMDocumentBuilder(DocumentBuilder jvmDocumentBuilder) {
         jvmDocumentBuilderPool.release(jvmDocumentBuilder);
     }
+
+    /**
+     * Take a JVM {@link DocumentBuilder} from the pool, in a {@link Lease} releasing it
+     * when closed:
+     * 
+     * <pre>
+     * try (Lease&lt;DocumentBuilder&gt; lease = leaseJVMDocumentBuilder()) {
+     *     // use lease.get()
+     * }
+     * </pre>
+     * 
+     * @return the {@link Lease} of one JVM {@link DocumentBuilder}
+     * 
+     * @throws PoolException
+     *             if the current thread waits for a JVM {@link DocumentBuilder}
+     *             of the pool and is interrupted
+     */
+    public final static Lease<DocumentBuilder> leaseJVMDocumentBuilder() throws PoolException {
+        return jvmDocumentBuilderPool.lease();
+    }
     
     /**
      * Create a new {@link Document} (with a JVM {@link DocumentBuilder} of the
@@ -68,10 +95,8 @@ public final class JVMDocumentBuilders {
      *             of the pool and is interrupted
      */
     public final static Document newDocument() {
-        DocumentBuilder jvmDocumentBuilder = takeJVMDocumentBuilder();
-        Document document = jvmDocumentBuilder.newDocument();
-        releaseJVMDocumentBuilder(jvmDocumentBuilder);
-        
-        return document;
+        try (Lease<DocumentBuilder> lease = leaseJVMDocumentBuilder()) {
+            return lease.get().newDocument();
+        }
     }
 }
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * An {@link InputStream} reading a file by mapping successive windows of it in memory, so that the parsers read
+ * the file directly from the page cache instead of copying it through read system calls and intermediate
+ * buffers.
+ * </p>
+ * <p>
+ * A window is mapped when the previous one is read. The JDK unmaps a window only when it is garbage collected,
+ * not when the stream is closed: the windows of {@link #WINDOW_SIZE} bytes bound the address space kept by the
+ * streams read or closed until the next collection. Meanwhile, the file cannot be deleted on Windows.
+ * </p>
+ */
+final class MappedInputStream extends InputStream {
+
+    // below this size, mapping the file costs more than reading it
+    static final long MIN_MAPPED_SIZE = 64 * 1024;
+
+    // the size of the file windows mapped at once
+    static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final Path file;
+
+    private final boolean temporary;
+
+    private final long windowSize;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    private long windowPosition = 0;
+
+    private ByteBuffer window = ByteBuffer.allocate(0);
+
+    private boolean deleted = false;
+
+    MappedInputStream(final Path file, final boolean temporary, final long windowSize) throws IOException {
+        assert windowSize > 0;
+
+        this.file = file;
+        this.temporary = temporary;
+        this.windowSize = windowSize;
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.length = this.channel.size();
+        } catch (final IOException e) {
+            if (temporary) {
+                file.toFile().delete();
+            }
+            throw e;
+        }
+        if (temporary) {
+            // on the platforms allowing it, the file is deleted right now and will
+            // disappear once the channel and the mapped windows are released
+            this.deleted = file.toFile().delete();
+        }
+    }
+
+    /**
+     * Open a file, mapped in memory if it is big enough
+     * 
+     * @param path
+     *            the file to read
+     * @return an {@link InputStream} reading the file, to close
+     * 
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    static InputStream open(final Path path) throws IOException {
+        if (Files.size(path) < MIN_MAPPED_SIZE) {
+            return Files.newInputStream(path);
+        }
+        return new MappedInputStream(path, false, WINDOW_SIZE);
+    }
+
+    /**
+     * Open a temporary file mapped in memory, deleted when the stream is closed, or as soon as it is opened if
+     * the platform allows it
+     * 
+     * @param file
+     *            the temporary file to read
+     * @return an {@link InputStream} reading the file, to close
+     * 
+     * @throws IOException
+     *             if the file cannot be opened, it is deleted
+     */
+    static InputStream openTemporary(final File file) throws IOException {
+        return new MappedInputStream(file.toPath(), true, WINDOW_SIZE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.nextWindowIfNeeded()) {
+            return -1;
+        }
+        return this.window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.nextWindowIfNeeded()) {
+            return -1;
+        }
+        final int read = Math.min(len, this.window.remaining());
+        this.window.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (!this.channel.isOpen()) {
+            throw new IOException("Stream closed");
+        }
+        final int remaining = this.window.remaining();
+        if (n <= remaining) {
+            this.window.position(this.window.position() + (int) n);
+            return n;
+        }
+        // the skipped windows are not mapped
+        final long skippedInFile = Math.min(n - remaining, this.length - this.windowPosition);
+        this.windowPosition += skippedInFile;
+        this.window = ByteBuffer.allocate(0);
+        return remaining + skippedInFile;
+    }
+
+    @Override
+    public int available() throws IOException {
+        final long remaining = this.length - this.windowPosition + this.window.remaining();
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel.isOpen()) {
+            this.window = ByteBuffer.allocate(0);
+            this.channel.close();
+            if (this.temporary && !this.deleted) {
+                this.deleted = this.file.toFile().delete();
+            }
+        }
+    }
+
+    private boolean nextWindowIfNeeded() throws IOException {
+        if (this.window.hasRemaining()) {
+            return true;
+        }
+        if (!this.channel.isOpen()) {
+            throw new IOException("Stream closed");
+        }
+        if (this.windowPosition >= this.length) {
+            return false;
+        }
+        final long size = Math.min(this.windowSize, this.length - this.windowPosition);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.windowPosition, size);
+        this.windowPosition += size;
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for the parsing of a document with a {@link javax.xml.parsers.DocumentBuilder} of
+ * {@link DocumentBuilders}
+ */
+@Name("com.ebmwebsourcing.easycommons.Parse")
+@Label("XML Parse")
+@Description("The parsing of a DOM document")
+@Category({ "EasyCommons", "XML" })
+final class ParseEvent extends Event {
+
+    @Label("System Id")
+    String systemId;
+
+    @Label("Payload Size")
+    @Description("The number of bytes parsed, -1 if not read from a byte stream")
+    @DataAmount
+    long payloadSize = -1;
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import com.ebmwebsourcing.easycommons.pooling.Lease;
+
+/**
+ * <p>
+ * A {@link XMLStreamReader} created by a pooled {@link XMLInputFactory}, the factory being released to its
+ * pool when the reader is closed, or by the shared factory. It must be closed:
+ * </p>
+ * <pre>
+ * try (PooledXMLStreamReader reader = XMLInputFactories.openXMLStreamReader(inputStream)) {
+ *     // ...
+ * }
+ * </pre>
+ * <p>
+ * When the reuse of the readers is enabled, see {@link XMLInputFactories#REUSE_READERS_PROPERTY}, keeping
+ * the factory until the reader is closed lets the factories reusing their last closed reader, as the JDK
+ * one, parse the next message with the same reader and its buffers.
+ * </p>
+ */
+public final class PooledXMLStreamReader extends StreamReaderDelegate implements AutoCloseable {
+
+    // null if the reader was created by the shared factory
+    private final Lease<XMLInputFactory> lease;
+
+    // the input opened for the reader, null if the input is not closed with the reader
+    private final InputStream input;
+
+    private boolean closed = false;
+
+    PooledXMLStreamReader(final XMLStreamReader reader, final Lease<XMLInputFactory> lease) {
+        this(reader, lease, null);
+    }
+
+    PooledXMLStreamReader(final XMLStreamReader reader, final Lease<XMLInputFactory> lease,
+            final InputStream input) {
+        super(reader);
+        this.lease = lease;
+        this.input = input;
+    }
+
+    /**
+     * Close the reader, without closing its input unless it was opened for the reader, and release its
+     * factory to the pool. Closing a closed reader does nothing.
+     */
+    @Override
+    public void close() throws XMLStreamException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            super.close();
+        } finally {
+            if (this.lease != null) {
+                this.lease.close();
+            }
+            if (this.input != null) {
+                try {
+                    this.input.close();
+                } catch (final IOException e) {
+                    throw new XMLStreamException("Cannot close the input of the reader", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for a run of the {@link XMLPrettyPrinter}
+ */
+@Name("com.ebmwebsourcing.easycommons.PrettyPrint")
+@Label("XML Pretty Print")
+@Description("The pretty printing of a source, including the compilation of the stylesheet")
+@Category({ "EasyCommons", "XML" })
+final class PrettyPrintEvent extends Event {
+
+    @Label("Source Type")
+    String sourceType;
+
+    @Label("Payload Size")
+    @Description("The number of bytes written")
+    @DataAmount
+    long payloadSize = -1;
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffer in front of an {@link OutputStream}, reused by the next writers of the thread once released.
+ * Closing it only flushes it: the target stream is left open.
+ */
+final class ReusableOutputBuffer extends OutputStream {
+
+    private static final int SIZE = 8192;
+
+    // the free buffer of each thread: a used buffer is only referenced by its writer, so that a writer never
+    // closed does not keep its stream nor prevent the reuse
+    private static final ThreadLocal<ReusableOutputBuffer> FREE_BUFFERS = new ThreadLocal<ReusableOutputBuffer>();
+
+    private final byte[] buffer = new byte[SIZE];
+
+    private int count;
+
+    // only used by the thread of the writer, null while the buffer is free
+    private OutputStream target;
+
+    private ReusableOutputBuffer() {
+    }
+
+    /**
+     * @return the free buffer of the thread, or a new one if it is used by another writer of the thread
+     */
+    static ReusableOutputBuffer open(final OutputStream target) {
+        ReusableOutputBuffer buffer = FREE_BUFFERS.get();
+        if (buffer == null) {
+            buffer = new ReusableOutputBuffer();
+        } else {
+            FREE_BUFFERS.set(null);
+        }
+        buffer.count = 0;
+        buffer.target = target;
+        return buffer;
+    }
+
+    /**
+     * Give back the buffer to the current thread, the bytes not flushed being lost. It must not be used anymore.
+     */
+    void release() {
+        this.count = 0;
+        this.target = null;
+        if (FREE_BUFFERS.get() == null) {
+            FREE_BUFFERS.set(this);
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (this.count == this.buffer.length) {
+            this.flushBuffer();
+        }
+        this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (length >= this.buffer.length) {
+            // not worth copying
+            this.flushBuffer();
+            this.target.write(bytes, offset, length);
+            return;
+        }
+        if (length > this.buffer.length - this.count) {
+            this.flushBuffer();
+        }
+        System.arraycopy(bytes, offset, this.buffer, this.count, length);
+        this.count += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.flushBuffer();
+        this.target.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.target.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+}
@@ -22,11 +22,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -34,6 +44,7 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -43,6 +54,7 @@ import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.stream.EasyByteArrayOutputStream;
 import com.ebmwebsourcing.easycommons.stream.InputStreamForker;
 import com.ebmwebsourcing.easycommons.stream.ReaderInputStream;
@@ -56,34 +68,245 @@ import com.ebmwebsourcing.easycommons.stream.StreamHelper;
  */
 public class SourceHelper {
 
+    private static final String STAX_OUTPUT_ENCODING = "UTF-8";
+
+    private static final int DEFAULT_STRING_CAPACITY = 1024;
+
+    // the encoding of a XML declaration: the group 1 is the pseudo-attribute, the group 2 its value
+    private static final Pattern XML_DECLARATION_ENCODING = Pattern
+            .compile("<\\?xml\\s[^>]*?(\\s+encoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._-]*)[\"'])");
+
+    private static final int MAX_XML_DECLARATION_LENGTH = 256;
+
     public static void toFile(final Source source, final File fileToWrite) throws TransformerException, IOException {
         final FileWriter writer = new FileWriter(fileToWrite);
         final Result result = new StreamResult(writer);
         
         final Transformer transformer = Transformers.takeTransformer();
         try {
-            transformer.transform(source, result);
+            Transformers.transform(transformer, source, result);
         } finally {
             Transformers.releaseTransformer(transformer);
             writer.close();
         }
     }
     
+    /**
+     * Convert a {@link Source} to a {@link String}. A {@link StreamSource} or
+     * a {@link SAXSource} (without specific {@link org.xml.sax.XMLReader})
+     * backed by a stream is only checked to be well-formed and directly
+     * decoded, with the encoding given by its first bytes or else declared
+     * for a byte stream, the encoding being removed from its XML declaration. The other sources are
+     * serialized with an identity transform.
+     * 
+     * @param source
+     *            the {@link Source} to convert
+     * @return the XML as a {@link String}
+     * @throws TransformerException
+     *             if the source is not well-formed or can't be serialized
+     */
     public static String toString(final Source source) throws TransformerException {
-        final StringWriter writer = new StringWriter();
+        final InputSource inputSource;
+        if (source instanceof StreamSource) {
+            inputSource = toInputSource(source);
+        } else if (source instanceof SAXSource && ((SAXSource) source).getXMLReader() == null) {
+            inputSource = ((SAXSource) source).getInputSource();
+        } else {
+            inputSource = null;
+        }
+
+        try {
+            if (inputSource != null && inputSource.getCharacterStream() != null) {
+                return checkWellFormed(withoutDeclaredEncoding(readAll(inputSource.getCharacterStream())));
+            } else if (inputSource != null && inputSource.getByteStream() != null) {
+                return checkWellFormed(inputSource.getByteStream().readAllBytes(), inputSource.getEncoding());
+            }
+        } catch (final IOException e) {
+            throw new TransformerException(e);
+        }
+
+        final StringBuilderWriter writer = new StringBuilderWriter(DEFAULT_STRING_CAPACITY);
         final Result result = new StreamResult(writer);
         
         final Transformer transformer = Transformers.takeTransformer();
         try {
-            transformer.transform(source, result);
+            Transformers.transform(transformer, source, result);
         } finally {
             Transformers.releaseTransformer(transformer);
-            // It's not needed to close a StringWriter (has no effect)
         }
         
         return writer.toString();
     }
 
+    private static String readAll(final Reader reader) throws IOException {
+        final StringBuilder sb = new StringBuilder(DEFAULT_STRING_CAPACITY);
+        final char[] buffer = new char[DEFAULT_STRING_CAPACITY];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
+    }
+
+    private static String checkWellFormed(final String xml) throws TransformerException {
+        final XMLInputFactory xmlInputFactory = XMLInputFactories.takeXMLInputFactory();
+        try {
+            checkWellFormed(xmlInputFactory.createXMLStreamReader(new StringReader(xml)));
+        } catch (final XMLStreamException e) {
+            throw new TransformerException(e);
+        } finally {
+            XMLInputFactories.releaseXMLInputFactory(xmlInputFactory);
+        }
+        return xml;
+    }
+
+    /**
+     * Decode the bytes of a XML document once, with the encoding of its byte order mark or of its first bytes,
+     * else of the {@link InputSource} or of its XML declaration, and check that it is well-formed. An encoding
+     * declared for a document whose first bytes give the encoding must be consistent with it. The byte order
+     * mark and the encoding of the XML declaration are removed from the returned {@link String}, which has no
+     * encoding.
+     */
+    private static String checkWellFormed(final byte[] xml, final String declaredEncoding)
+            throws TransformerException {
+        int offset = 0;
+        Charset detected = null;
+        if (startsWith(xml, 0xEF, 0xBB, 0xBF)) {
+            offset = 3;
+            detected = StandardCharsets.UTF_8;
+        } else if (startsWith(xml, 0xFE, 0xFF)) {
+            offset = 2;
+            detected = StandardCharsets.UTF_16BE;
+        } else if (startsWith(xml, 0xFF, 0xFE)) {
+            offset = 2;
+            detected = StandardCharsets.UTF_16LE;
+        } else if (startsWith(xml, 0x00, 0x3C)) {
+            detected = StandardCharsets.UTF_16BE;
+        } else if (startsWith(xml, 0x3C, 0x00)) {
+            detected = StandardCharsets.UTF_16LE;
+        }
+
+        final String decoded;
+        if (detected != null) {
+            // the byte order is known, the declared encodings are only checked
+            decoded = new String(xml, offset, xml.length - offset, detected);
+            checkEncoding(detected, declaredEncoding);
+            final Matcher matcher = XML_DECLARATION_ENCODING.matcher(decoded);
+            if (matcher.lookingAt()) {
+                checkEncoding(detected, matcher.group(2));
+            }
+        } else {
+            String encoding = declaredEncoding;
+            if (encoding == null) {
+                // the XML declaration is in ASCII for the other encodings
+                final Matcher matcher = XML_DECLARATION_ENCODING
+                        .matcher(new String(xml, 0, Math.min(xml.length, MAX_XML_DECLARATION_LENGTH),
+                                StandardCharsets.ISO_8859_1));
+                encoding = matcher.lookingAt() ? matcher.group(2) : null;
+            }
+            decoded = new String(xml, encoding == null ? StandardCharsets.UTF_8 : toCharset(encoding));
+        }
+        return checkWellFormed(withoutDeclaredEncoding(decoded));
+    }
+
+    /**
+     * Check that an encoding declared for a document is consistent with the encoding given by its first bytes
+     */
+    private static void checkEncoding(final Charset detected, final String encoding) throws TransformerException {
+        if (encoding == null) {
+            return;
+        }
+        final Charset charset = toCharset(encoding);
+        // UTF-16 does not say the byte order, given by the first bytes
+        if (!charset.equals(detected) && !(charset.equals(StandardCharsets.UTF_16)
+                && (detected.equals(StandardCharsets.UTF_16BE) || detected.equals(StandardCharsets.UTF_16LE)))) {
+            throw new TransformerException(
+                    "The encoding " + encoding + " does not match the first bytes of the document: " + detected);
+        }
+    }
+
+    private static Charset toCharset(final String encoding) throws TransformerException {
+        try {
+            return Charset.forName(encoding);
+        } catch (final IllegalArgumentException e) {
+            throw new TransformerException("Unsupported encoding: " + encoding, e);
+        }
+    }
+
+    private static String withoutDeclaredEncoding(final String xml) {
+        final Matcher matcher = XML_DECLARATION_ENCODING.matcher(xml);
+        return matcher.lookingAt() ? xml.substring(0, matcher.start(1)) + xml.substring(matcher.end(1)) : xml;
+    }
+
+    private static boolean startsWith(final byte[] bytes, final int... prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkWellFormed(final XMLStreamReader reader) throws XMLStreamException {
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * A {@link Writer} on a {@link StringBuilder}, without the synchronization
+     * of the {@link java.io.StringWriter} {@link StringBuffer}.
+     */
+    private static final class StringBuilderWriter extends Writer {
+
+        private final StringBuilder sb;
+
+        public StringBuilderWriter(final int capacity) {
+            this.sb = new StringBuilder(capacity);
+        }
+
+        @Override
+        public void write(final int c) {
+            this.sb.append((char) c);
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            this.sb.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            this.sb.append(str, off, off + len);
+        }
+
+        @Override
+        public Writer append(final CharSequence csq) {
+            this.sb.append(csq);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return this.sb.toString();
+        }
+    }
+
     private static SAXSource forkSAXSource(final SAXSource source) throws IOException {
         final InputSource inputSource = source.getInputSource();
         final InputSource result;
@@ -130,12 +353,24 @@ public class SourceHelper {
         return result;
     }
 
+    private static StAXSource forkStAXSource(final StAXSource source) {
+        final XMLStreamEventBuffer buffer = XMLStreamEventBuffer.getReplayedBuffer(source.getXMLStreamReader());
+        if (buffer == null) {
+            // a StAXSource can't be forked as we need to read it to fork it but then we can't reset the StAXSource
+            // with one of the forks: it must have been buffered before with toBufferedStAXSource()
+            throw new IllegalArgumentException(
+                    "Only StAXSource created by SourceHelper.toBufferedStAXSource() can be forked");
+        }
+        return new StAXSource(buffer.newReader());
+    }
+
     /**
      * Fork, if necessary, a {@link Source} so that consuming the forked one
      * does not consume the original one.
      * 
      * @param source
-     *            {@link Source} to be forked.
+     *            {@link Source} to be forked. A {@link StAXSource} must have
+     *            been created by {@link #toBufferedStAXSource(StAXSource)}.
      * @return Forked {@link Source}.
      * @throws IOException
      */
@@ -147,16 +382,67 @@ public class SourceHelper {
             return forkStreamSource((StreamSource) source);
         } else if (source instanceof SAXSource) {
             return forkSAXSource((SAXSource) source);
+        } else if (source instanceof StAXSource) {
+            return forkStAXSource((StAXSource) source);
         } else {
-            // staxsources can't be forked as we need to read them to fork them but then we can't reset the staxsource
-            // with one of the forks... TODO or we need to work directly at the message exchange level? or anyway
-            // staxsource are not meant to be used in the context of something like petals!!! (small sized messages)
             throw new IllegalArgumentException(
-                    "Only DOMSource, StreamSource and SAXSource are supported right now, got a "
+                    "Only DOMSource, StreamSource, SAXSource and StAXSource are supported right now, got a "
                             + source.getClass().getName());
         }
     }
 
+    /**
+     * Read the remaining events of a {@link StAXSource} into a
+     * {@link XMLStreamEventBuffer} so that the returned {@link StAXSource} can
+     * be forked with {@link #fork(Source)} any number of times without
+     * serializing it.
+     * 
+     * @param source
+     *            the {@link StAXSource} to buffer. It is consumed.
+     * @return a {@link StAXSource} replaying the events of the specified one
+     * @throws XMLStreamException
+     *             if an error occurs while reading the specified source
+     */
+    public static StAXSource toBufferedStAXSource(final StAXSource source) throws XMLStreamException {
+        if (XMLStreamEventBuffer.getReplayedBuffer(source.getXMLStreamReader()) != null) {
+            return source;
+        }
+        final XMLStreamEventBuffer buffer;
+        if (source.getXMLStreamReader() != null) {
+            buffer = XMLStreamEventBuffer.record(source.getXMLStreamReader());
+        } else {
+            buffer = XMLStreamEventBuffer.record(source.getXMLEventReader());
+        }
+        return new StAXSource(buffer.newReader());
+    }
+
+    private static void writeStAXSource(final StAXSource source, final OutputStream os)
+            throws TransformerException {
+        final XMLOutputFactory xmlOutputFactory = XMLOutputFactories.takeXMLOutputFactory();
+        try {
+            if (source.getXMLStreamReader() != null) {
+                final XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(os, STAX_OUTPUT_ENCODING);
+                try {
+                    XMLStreamEventBuffer.copy(source.getXMLStreamReader(), writer, STAX_OUTPUT_ENCODING);
+                } finally {
+                    writer.close();
+                }
+            } else {
+                final XMLEventWriter writer = xmlOutputFactory.createXMLEventWriter(os, STAX_OUTPUT_ENCODING);
+                try {
+                    writer.add(source.getXMLEventReader());
+                    writer.flush();
+                } finally {
+                    writer.close();
+                }
+            }
+        } catch (final XMLStreamException e) {
+            throw new TransformerException(e);
+        } finally {
+            XMLOutputFactories.releaseXMLOutputFactory(xmlOutputFactory);
+        }
+    }
+
     public static InputStream getUnderlyingInputStream(Source source) {
         if (source instanceof StreamSource) {
             return ((StreamSource) source).getInputStream();
@@ -167,20 +453,84 @@ public class SourceHelper {
         }
     }
 
-    public static EasyByteArrayOutputStream toEasyByteArrayOutputStream(Source source) throws TransformerException {
-        final EasyByteArrayOutputStream os = new EasyByteArrayOutputStream();
+    private static void writeTo(final Source source, final OutputStream os) throws TransformerException {
+        if (source instanceof StAXSource) {
+            // StAX events are directly written, without the StAX to SAX bridge of the transformer
+            writeStAXSource((StAXSource) source, os);
+            return;
+        }
 
         final Transformer transformer = Transformers.takeTransformer();
 
         try {
-            transformer.transform(source, new StreamResult(os));
+            Transformers.transform(transformer, source, new StreamResult(os));
         } finally {
             Transformers.releaseTransformer(transformer);
         }
+    }
 
+    /**
+     * Serialize a {@link Source} in memory. For large sources, prefer
+     * {@link #toFileBackedOutputStream(Source, long)}.
+     * 
+     * @param source
+     *            the {@link Source} to serialize
+     * @return the serialized source
+     * @throws TransformerException
+     *             if an error occurs while serializing the source
+     */
+    public static EasyByteArrayOutputStream toEasyByteArrayOutputStream(Source source) throws TransformerException {
+        final EasyByteArrayOutputStream os = new EasyByteArrayOutputStream();
+        writeTo(source, os);
+        return os;
+    }
+
+    /**
+     * Serialize a {@link Source} in memory, or in a temporary file if its
+     * serialized size exceeds the specified threshold.
+     * 
+     * @param source
+     *            the {@link Source} to serialize
+     * @param threshold
+     *            the size, in bytes, above which the serialized source is
+     *            buffered in a temporary file
+     * @return the serialized source. It must be read back with
+     *         {@link FileBackedOutputStream#toInputStream()} or
+     *         {@link FileBackedOutputStream#toByteArray()}, or discarded with
+     *         {@link FileBackedOutputStream#discard()}.
+     * @throws TransformerException
+     *             if an error occurs while serializing the source
+     */
+    public static FileBackedOutputStream toFileBackedOutputStream(final Source source, final long threshold)
+            throws TransformerException {
+        final FileBackedOutputStream os = new FileBackedOutputStream(threshold);
+        boolean written = false;
+        try {
+            writeTo(source, os);
+            os.close();
+            written = true;
+        } catch (final IOException e) {
+            throw new TransformerException(e);
+        } finally {
+            if (!written) {
+                os.discard();
+            }
+        }
         return os;
     }
 
+    /**
+     * Get the bytes of a {@link Source}. If the source is not backed by a
+     * {@link ByteArrayInputStream}, it is serialized and, above
+     * {@link FileBackedOutputStream#DEFAULT_THRESHOLD}, buffered in a
+     * temporary file until the resulting array is created.
+     * 
+     * @param source
+     *            the {@link Source}
+     * @return the bytes of the source
+     * @throws TransformerException
+     *             if an error occurs while serializing the source
+     */
     public static byte[] toByteArray(final Source source) throws TransformerException {
 
         InputStream is = getUnderlyingInputStream(source);
@@ -194,17 +544,56 @@ public class SourceHelper {
             }
         }
 
-        return toEasyByteArrayOutputStream(source).toRawByteArray();
+        try {
+            return toFileBackedOutputStream(source, FileBackedOutputStream.DEFAULT_THRESHOLD).toByteArray();
+        } catch (final IOException e) {
+            throw new TransformerException(e);
+        }
     }
 
+    /**
+     * Get an {@link InputStream} on a {@link Source}, serializing it if it is
+     * not backed by an {@link InputStream}. Above
+     * {@link FileBackedOutputStream#DEFAULT_THRESHOLD}, the serialized source is
+     * buffered in a temporary file, deleted when the returned stream is closed.
+     * 
+     * @param source
+     *            the {@link Source}
+     * @return an {@link InputStream} on the source
+     * @throws TransformerException
+     *             if an error occurs while serializing the source
+     */
     public static InputStream toInputStream(final Source source) throws TransformerException {
+        return toInputStream(source, FileBackedOutputStream.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Get an {@link InputStream} on a {@link Source}, serializing it if it is
+     * not backed by an {@link InputStream}.
+     * 
+     * @param source
+     *            the {@link Source}
+     * @param threshold
+     *            the size, in bytes, above which the serialized source is
+     *            buffered in a temporary file, deleted when the returned
+     *            stream is closed
+     * @return an {@link InputStream} on the source
+     * @throws TransformerException
+     *             if an error occurs while serializing the source
+     */
+    public static InputStream toInputStream(final Source source, final long threshold)
+            throws TransformerException {
         InputStream is = getUnderlyingInputStream(source);
 
         if (is != null) {
             return is;
         }
 
-        return toEasyByteArrayOutputStream(source).toByteArrayInputStream();
+        try {
+            return toFileBackedOutputStream(source, threshold).toInputStream();
+        } catch (final IOException e) {
+            throw new TransformerException(e);
+        }
     }
 
     public static InputSource toInputSource(final Source source) throws TransformerException {
@@ -238,28 +627,101 @@ public class SourceHelper {
         return new DOMSource(document);
     }
 
+    /**
+     * Convert a {@link Source} to a new {@link Document}. The {@link Document}
+     * of a {@link DOMSource} is copied node by node, {@link StreamSource} and
+     * {@link SAXSource} without specific {@link org.xml.sax.XMLReader} are
+     * directly parsed with a pooled {@link DocumentBuilder}, and the other
+     * sources are transformed into a new {@link Document}.
+     * 
+     * @param source
+     *            the {@link Source} to convert
+     * @return the {@link Document}
+     * @throws TransformerException
+     *             if an error occurs while parsing or transforming the source
+     */
     public static Document toDocument(final Source source) throws TransformerException {
+        if (source instanceof DOMSource && ((DOMSource) source).getNode() instanceof Document) {
+            return copyDocument((Document) ((DOMSource) source).getNode());
+        } else if (source instanceof StreamSource
+                || (source instanceof SAXSource && ((SAXSource) source).getXMLReader() == null
+                        && ((SAXSource) source).getInputSource() != null)) {
+            return parseDocument(toInputSource(source));
+        } else {
+            return transformToDocument(source);
+        }
+    }
+
+    private static Document copyDocument(final Document document) {
+        final Document copy = DocumentBuilders.newDocument();
+        copy.setXmlStandalone(document.getXmlStandalone());
+        for (Node child = document.getFirstChild(); child != null; child = child.getNextSibling()) {
+            // a document type cannot be imported
+            if (child.getNodeType() != Node.DOCUMENT_TYPE_NODE) {
+                copy.appendChild(copy.importNode(child, true));
+            }
+        }
+        return copy;
+    }
+
+    private static Document parseDocument(final InputSource inputSource) throws TransformerException {
+        final DocumentBuilder documentBuilder = DocumentBuilders.takeDocumentBuilder();
+        try {
+            return DocumentBuilders.parse(documentBuilder, inputSource);
+        } catch (final SAXException | IOException e) {
+            throw new TransformerException(e);
+        } finally {
+            DocumentBuilders.releaseDocumentBuilder(documentBuilder);
+        }
+    }
+
+    private static Document transformToDocument(final Source source) throws TransformerException {
         final Document document = DocumentBuilders.newDocument();
         final DOMResult domResult = new DOMResult(document);
         final Transformer transformer = Transformers.takeTransformer();
         try {
-            transformer.transform(source, domResult);
+            Transformers.transform(transformer, source, domResult);
         } finally {
             Transformers.releaseTransformer(transformer);
         }
         return document;
     }
 
+    /**
+     * Parse an {@link InputSource} into a {@link DOMSource} with a pooled
+     * namespace aware {@link DocumentBuilder}.
+     * 
+     * @param inputSource
+     *            the {@link InputSource} to parse
+     * @return the {@link DOMSource} of the parsed document
+     * @throws IOException
+     *             if an error occurs while parsing
+     */
     public static DOMSource toDOMSource(final InputSource inputSource) throws IOException {
+        return toDOMSource(inputSource, new DocumentBuilderFeature[0]);
+    }
+
+    /**
+     * Parse an {@link InputSource} into a {@link DOMSource} with a pooled
+     * namespace aware {@link DocumentBuilder} having the specified features.
+     * 
+     * @param inputSource
+     *            the {@link InputSource} to parse
+     * @param features
+     *            the optional features of the {@link DocumentBuilder} to use,
+     *            each set of features having its own pool
+     * @return the {@link DOMSource} of the parsed document
+     * @throws IOException
+     *             if an error occurs while parsing
+     */
+    public static DOMSource toDOMSource(final InputSource inputSource, final DocumentBuilderFeature... features)
+            throws IOException {
         try {
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            final DocumentBuilder db = factory.newDocumentBuilder();
-            final Document document = db.parse(inputSource);
+            final Document document = DocumentBuilders.parse(inputSource, features);
             final DOMSource res = new DOMSource(document);
             res.setSystemId(inputSource.getSystemId());
             return res;
-        } catch (ParserConfigurationException | SAXException e) {
+        } catch (SAXException | PoolException e) {
             throw new IOException(e);
         }
     }
@@ -309,7 +771,7 @@ public class SourceHelper {
         
         Transformer transformer = Transformers.takeTransformer();
         try {
-            transformer.transform(source, result);
+            Transformers.transform(transformer, source, result);
         } catch (Exception ex) {
         } finally {
             Transformers.releaseTransformer(transformer);
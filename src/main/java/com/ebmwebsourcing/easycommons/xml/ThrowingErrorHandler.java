@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * An {@link ErrorHandler} throwing the errors instead of printing them on the standard error as the default
+ * handler of the parsers. The warnings are ignored.
+ */
+final class ThrowingErrorHandler implements ErrorHandler {
+
+    static final ThrowingErrorHandler INSTANCE = new ThrowingErrorHandler();
+
+    private ThrowingErrorHandler() {
+    }
+
+    @Override
+    public void warning(final SAXParseException exception) {
+    }
+
+    @Override
+    public void error(final SAXParseException exception) throws SAXException {
+        throw exception;
+    }
+
+    @Override
+    public void fatalError(final SAXParseException exception) throws SAXException {
+        throw exception;
+    }
+}
@@ -15,17 +15,21 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 
 import com.ebmwebsourcing.easycommons.lang.reflect.ReflectionHelper;
-import com.ebmwebsourcing.easycommons.pooling.GenericResourcePool;
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 import com.ebmwebsourcing.easycommons.pooling.ResourceHandler;
+import com.ebmwebsourcing.easycommons.pooling.ShardedResourcePool;
 
 /**
  * This class represent a {@link Transformer} pool, which provided {@link Transformer}
@@ -48,7 +52,7 @@ public class TransformerResourcePool {
         }
 
         @Override
-        public Transformer create() {
+        public synchronized Transformer create() {
             try {
                 return this.transformerFactory.newTransformer();
             } catch (TransformerConfigurationException e) {
@@ -66,7 +70,7 @@ public class TransformerResourcePool {
         }
     }
     
-    private final GenericResourcePool<Transformer> transformerResourcePool;
+    private final ShardedResourcePool<Transformer> transformerResourcePool;
 
     /**
      * Allowing to instantiate a new {@link TransformerResourcePool} containing {@link Transformer} resources.
@@ -84,9 +88,31 @@ public class TransformerResourcePool {
      */
     public TransformerResourcePool(int minPoolSize, int maxPoolSize,
             PoolPolicy poolPolicy) {
+        this(minPoolSize, maxPoolSize, poolPolicy, 1);
+    }
+
+    /**
+     * Allowing to instantiate a new {@link TransformerResourcePool} containing {@link Transformer} resources,
+     * split in several shards so that the threads using it at the same time contend less.
+     * 
+     * @param minPoolSize
+     *            The minimum number of {@link Transformer} instances in the pool (created at the
+     *            initialization).
+     * @param maxPoolSize
+     *            the maximum number of {@link Transformer} instances in the current pool (limit of the
+     *            pool). It must be greater or equals to the specified minSize.
+     *            The maximum value is Integer.MAX_VALUE
+     * @param poolPolicy
+     *            the {@link PoolPolicy} to adopt when the maximum size is reached. it
+     *            cannot be null.
+     * @param shardCount
+     *            the number of shards, see {@link ShardedResourcePool}
+     */
+    public TransformerResourcePool(int minPoolSize, int maxPoolSize,
+            PoolPolicy poolPolicy, int shardCount) {
         TransformerResourceHandler transformerResourceHandler = new TransformerResourceHandler();
-        this.transformerResourcePool = new GenericResourcePool<Transformer>(
-                transformerResourceHandler, minPoolSize, maxPoolSize, poolPolicy);
+        this.transformerResourcePool = new ShardedResourcePool<Transformer>(
+                transformerResourceHandler, shardCount, minPoolSize, maxPoolSize, poolPolicy);
     }
 
     /**
@@ -107,6 +133,33 @@ public class TransformerResourcePool {
         return this.transformerResourcePool.take();
     }
 
+    /**
+     * Take one unused {@link Transformer} in the current pool, in a {@link Lease}
+     * releasing it when closed.
+     * 
+     * @return the {@link Lease} of one {@link Transformer}
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public Lease<Transformer> lease() {
+        return this.transformerResourcePool.lease();
+    }
+
+    /**
+     * Take one unused {@link Transformer} in the current pool without blocking. If none is
+     * available, the returned future is completed when one is released.
+     * 
+     * @return the future of one {@link Transformer}, completed exceptionally by a
+     *         {@link PoolException} if there is no more available resource in the pool
+     *         for the pool policy REJECT
+     */
+    public CompletableFuture<Transformer> takeAsync() {
+        return this.transformerResourcePool.takeAsync();
+    }
+
     /**
      * Release the specified {@link Transformer} After putting back the
      * {@link Transformer} in the pool, the method onRelease() of the
@@ -118,4 +171,22 @@ public class TransformerResourcePool {
     public final void release(final Transformer transformer) {
         this.transformerResourcePool.release(transformer);
     }
+
+    /**
+     * Adapt the size of the pool to the load
+     * 
+     * @param adaptiveSizing
+     *            the settings of the adaptive sizing, null to disable it
+     * @see GenericResourcePool#setAdaptiveSizing(AdaptiveSizing)
+     */
+    public void setAdaptiveSizing(final AdaptiveSizing adaptiveSizing) {
+        this.transformerResourcePool.setAdaptiveSizing(adaptiveSizing);
+    }
+
+    /**
+     * @return the current state of each shard of the pool
+     */
+    public List<ShardedResourcePool.ShardMetrics> getShardMetrics() {
+        return this.transformerResourcePool.getShardMetrics();
+    }
 }
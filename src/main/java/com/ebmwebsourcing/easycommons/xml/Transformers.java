@@ -15,21 +15,76 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
+import com.ebmwebsourcing.easycommons.pooling.KeyedResourcePool;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
+import com.ebmwebsourcing.easycommons.pooling.ResourceHandler;
 
 /**
  * A static pool of {@link Transformer} to improve {@link Transformer} creation efficiency. 
  * A {@link Transformer} is initialized the first time this class is used.
- * An infinite number (integer maximum value) of {@link Transformer} may be created. They are never evicted.
+ * An infinite number (integer maximum value) of {@link Transformer} may be created.
+ * The idle ones are evicted when the load decreases (see {@link AdaptiveSizing#forUnboundedPool()}).
+ * On machines with many cores, the pool can be split in shards with the system property
+ * {@code com.ebmwebsourcing.easycommons.xml.Transformers.shards}.
  * 
  * @author Nicolas Oddoux - EBM WebSourcing
  */
 public final class Transformers {
 
-    private static final TransformerResourcePool transformerPool = new TransformerResourcePool(1, Integer.MAX_VALUE, PoolPolicy.WAIT);
+    private static final TransformerResourcePool transformerPool = new TransformerResourcePool(1, Integer.MAX_VALUE,
+            PoolPolicy.WAIT, Integer.getInteger(Transformers.class.getName() + ".shards", 1));
+
+    // the templates above this number are forgotten, the least recently used first
+    private static final int MAX_TEMPLATES = 64;
+
+    /**
+     * The transformers of compiled {@link Templates}
+     */
+    private static final class TemplatesTransformerResourceHandler implements ResourceHandler<Transformer> {
+
+        private final Templates templates;
+
+        TemplatesTransformerResourceHandler(final Templates templates) {
+            this.templates = templates;
+        }
+
+        @Override
+        public Transformer create() {
+            try {
+                return this.templates.newTransformer();
+            } catch (TransformerConfigurationException e) {
+                throw new PoolException(e);
+            }
+        }
+
+        @Override
+        public void onTake(Transformer transformer) {
+        }
+
+        @Override
+        public void onRelease(Transformer transformer) {
+            transformer.reset();
+        }
+    }
+
+    private static final KeyedResourcePool<Templates, Transformer> templatesTransformerPool = new KeyedResourcePool<Templates, Transformer>(
+            TemplatesTransformerResourceHandler::new, Integer.MAX_VALUE, Integer.MAX_VALUE, MAX_TEMPLATES,
+            PoolPolicy.WAIT);
+
+    static {
+        transformerPool.setAdaptiveSizing(AdaptiveSizing.forUnboundedPool());
+    }
 
     /**
      * Take a {@link Transformer} from the pool
@@ -52,4 +107,86 @@ public final class Transformers {
     public final static void releaseTransformer(Transformer transformer) {
         transformerPool.release(transformer);
     }
+
+    /**
+     * Take a {@link Transformer} from the pool, in a {@link Lease} releasing it
+     * when closed:
+     * 
+     * <pre>
+     * try (Lease&lt;Transformer&gt; lease = leaseTransformer()) {
+     *     // use lease.get()
+     * }
+     * </pre>
+     * 
+     * @return the {@link Lease} of one {@link Transformer}
+     * 
+     * @throws PoolException
+     *             if the current thread waits for a {@link Transformer}
+     *             of the pool and is interrupted
+     */
+    public final static Lease<Transformer> leaseTransformer() throws PoolException {
+        return transformerPool.lease();
+    }
+
+    /**
+     * Take a {@link Transformer} of compiled {@link Templates} from the pool, in a {@link Lease}
+     * releasing it when closed. The transformers of the least recently used templates are dropped when
+     * there are too many templates.
+     * 
+     * @param templates
+     *            the {@link Templates} of the {@link Transformer}
+     * @return the {@link Lease} of one {@link Transformer}
+     * 
+     * @throws PoolException
+     *             if the {@link Transformer} cannot be created, or if the current thread waits for a
+     *             {@link Transformer} of the pool and is interrupted
+     */
+    public final static Lease<Transformer> leaseTransformer(final Templates templates) throws PoolException {
+        return templatesTransformerPool.lease(templates);
+    }
+
+    /**
+     * Transform a source into a result with a {@link Transformer}, recording a Flight Recorder event of the
+     * transformation when it is enabled at its start. A recording started during the transformation does not
+     * record it.
+     * 
+     * @param transformer
+     *            the {@link Transformer}, usually taken from the pool
+     * @param source
+     *            the source to transform
+     * @param result
+     *            the result of the transformation
+     * @throws TransformerException
+     *             if an unrecoverable error occurs during the course of the transformation
+     */
+    public final static void transform(final Transformer transformer, final Source source, final Result result)
+            throws TransformerException {
+        final TransformEvent event = new TransformEvent();
+        if (!event.isEnabled() || result == null) {
+            transformer.transform(source, result);
+            return;
+        }
+
+        Result countedResult = result;
+        CountingOutputStream counter = null;
+        if (result instanceof StreamResult && ((StreamResult) result).getOutputStream() != null) {
+            counter = new CountingOutputStream(((StreamResult) result).getOutputStream());
+            countedResult = new StreamResult(counter);
+            countedResult.setSystemId(result.getSystemId());
+        }
+        event.begin();
+        try {
+            transformer.transform(source, countedResult);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.sourceType = source == null ? null : source.getClass().getName();
+                event.resultType = result.getClass().getName();
+                if (counter != null) {
+                    event.payloadSize = counter.getCount();
+                }
+                event.commit();
+            }
+        }
+    }
 }
@@ -0,0 +1,377 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * Split a XML document in fragments while streaming it, so that the memory used does not depend on the size of
+ * the document. The fragments are the elements found at a path of qualified names from the root element:
+ * </p>
+ * <pre>
+ * try (XMLFragmentSplitter splitter = new XMLFragmentSplitter(inputStream, batch, record)) {
+ *     while (splitter.hasNext()) {
+ *         Document record = splitter.nextDocument();
+ *         // ...
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Each fragment is read as its own {@link Document}, or as a {@link Source} to parse later, its root element
+ * declaring the namespaces in scope in the split document. The content outside of the fragments is skipped.
+ * A {@link XMLFragmentSplitter} must be used by only one thread.
+ * </p>
+ */
+public final class XMLFragmentSplitter implements AutoCloseable {
+
+    private final XMLStreamReader reader;
+
+    private final QName[] path;
+
+    // the depth of the current element, 0 outside of the root element
+    private int depth = 0;
+
+    // the number of elements of the path matched by the current element and its ancestors
+    private int matched = 0;
+
+    // the namespaces declared on the matched elements
+    private final List<String> namespacePrefixes = new ArrayList<String>();
+
+    private final List<String> namespaceURIs = new ArrayList<String>();
+
+    private final List<Integer> namespaceCounts = new ArrayList<Integer>();
+
+    // true if the reader is on the start of a fragment not read yet
+    private boolean pending = false;
+
+    /**
+     * Create a {@link XMLFragmentSplitter} reading a {@link InputStream}
+     * 
+     * @param inputStream
+     *            the document to split, not closed by the splitter
+     * @param path
+     *            the qualified names of the elements from the root element to the fragments
+     * 
+     * @throws XMLStreamException
+     *             if the reader of the document cannot be created
+     */
+    public XMLFragmentSplitter(final InputStream inputStream, final QName... path) throws XMLStreamException {
+        this(XMLInputFactories.openXMLStreamReader(inputStream), path);
+    }
+
+    /**
+     * Create a {@link XMLFragmentSplitter} reading a {@link XMLStreamReader} from its current position
+     * 
+     * @param reader
+     *            the reader of the document to split, positioned before the root element, closed with the splitter
+     * @param path
+     *            the qualified names of the elements from the root element to the fragments
+     */
+    public XMLFragmentSplitter(final XMLStreamReader reader, final QName... path) {
+        assert reader != null;
+        assert path.length > 0;
+
+        this.reader = reader;
+        this.path = path.clone();
+    }
+
+    /**
+     * Read the document up to the next fragment
+     * 
+     * @return true if there is a fragment to read, false at the end of the document
+     * 
+     * @throws XMLStreamException
+     *             if the document cannot be read
+     */
+    public boolean hasNext() throws XMLStreamException {
+        while (!this.pending && this.reader.hasNext()) {
+            final int event = this.reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                this.startElement();
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                this.endElement();
+            }
+        }
+        return this.pending;
+    }
+
+    /**
+     * Read the next fragment as a {@link Document}, created with a {@link javax.xml.parsers.DocumentBuilder} of
+     * the pool
+     * 
+     * @return the next fragment
+     * 
+     * @throws XMLStreamException
+     *             if the document cannot be read
+     * @throws NoSuchElementException
+     *             if there is no more fragment
+     */
+    public Document nextDocument() throws XMLStreamException {
+        this.next();
+
+        final Document document = DocumentBuilders.newDocument();
+        Node current = document;
+        int fragmentDepth = 0;
+        do {
+            switch (this.reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final Element element = document.createElementNS(emptyToNull(this.reader.getNamespaceURI()),
+                            qualifiedName(this.reader.getPrefix(), this.reader.getLocalName()));
+                    if (fragmentDepth == 0) {
+                        for (final Map.Entry<String, String> namespace : this.getInScopeNamespaces().entrySet()) {
+                            declareNamespace(element, namespace.getKey(), namespace.getValue());
+                        }
+                    } else {
+                        for (int i = 0; i < this.reader.getNamespaceCount(); i++) {
+                            declareNamespace(element, this.reader.getNamespacePrefix(i),
+                                    this.reader.getNamespaceURI(i));
+                        }
+                    }
+                    for (int i = 0; i < this.reader.getAttributeCount(); i++) {
+                        element.setAttributeNS(emptyToNull(this.reader.getAttributeNamespace(i)),
+                                qualifiedName(this.reader.getAttributePrefix(i), this.reader.getAttributeLocalName(i)),
+                                this.reader.getAttributeValue(i));
+                    }
+                    current.appendChild(element);
+                    current = element;
+                    fragmentDepth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    fragmentDepth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(document.createTextNode(this.reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(document.createCDATASection(this.reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(document.createComment(this.reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(document.createProcessingInstruction(this.reader.getPITarget(),
+                            this.reader.getPIData()));
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    current.appendChild(document.createEntityReference(this.reader.getLocalName()));
+                    break;
+                default:
+                    break;
+            }
+        } while (fragmentDepth > 0 && this.nextInFragment(fragmentDepth));
+
+        this.endElement();
+        return document;
+    }
+
+    /**
+     * Read the next fragment as a {@link Source}, the fragment being serialized in UTF-8 to be parsed later, for
+     * example by another thread
+     * 
+     * @return the next fragment
+     * 
+     * @throws XMLStreamException
+     *             if the document cannot be read
+     * @throws NoSuchElementException
+     *             if there is no more fragment
+     */
+    public Source nextSource() throws XMLStreamException {
+        this.next();
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (PooledXMLStreamWriter writer = XMLOutputFactories.openXMLStreamWriter(outputStream, "UTF-8")) {
+            int fragmentDepth = 0;
+            do {
+                switch (this.reader.getEventType()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        writer.writeStartElement(nullToEmpty(this.reader.getPrefix()), this.reader.getLocalName(),
+                                nullToEmpty(this.reader.getNamespaceURI()));
+                        if (fragmentDepth == 0) {
+                            for (final Map.Entry<String, String> namespace : this.getInScopeNamespaces()
+                                    .entrySet()) {
+                                writeNamespace(writer, namespace.getKey(), namespace.getValue());
+                            }
+                        } else {
+                            for (int i = 0; i < this.reader.getNamespaceCount(); i++) {
+                                writeNamespace(writer, this.reader.getNamespacePrefix(i),
+                                        this.reader.getNamespaceURI(i));
+                            }
+                        }
+                        for (int i = 0; i < this.reader.getAttributeCount(); i++) {
+                            final String attributeNamespace = this.reader.getAttributeNamespace(i);
+                            if (attributeNamespace == null || attributeNamespace.isEmpty()) {
+                                writer.writeAttribute(this.reader.getAttributeLocalName(i),
+                                        this.reader.getAttributeValue(i));
+                            } else {
+                                writer.writeAttribute(nullToEmpty(this.reader.getAttributePrefix(i)),
+                                        attributeNamespace, this.reader.getAttributeLocalName(i),
+                                        this.reader.getAttributeValue(i));
+                            }
+                        }
+                        fragmentDepth++;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        writer.writeEndElement();
+                        fragmentDepth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        writer.writeCharacters(this.reader.getTextCharacters(), this.reader.getTextStart(),
+                                this.reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        writer.writeCData(this.reader.getText());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        writer.writeComment(this.reader.getText());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        writer.writeProcessingInstruction(this.reader.getPITarget(), this.reader.getPIData());
+                        break;
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        writer.writeEntityRef(this.reader.getLocalName());
+                        break;
+                    default:
+                        break;
+                }
+            } while (fragmentDepth > 0 && this.nextInFragment(fragmentDepth));
+            writer.writeEndDocument();
+        }
+
+        this.endElement();
+        return new StreamSource(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    /**
+     * Close the reader of the document
+     */
+    @Override
+    public void close() throws XMLStreamException {
+        this.reader.close();
+    }
+
+    private void next() throws XMLStreamException {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        this.pending = false;
+    }
+
+    private boolean nextInFragment(final int fragmentDepth) throws XMLStreamException {
+        if (!this.reader.hasNext()) {
+            throw new XMLStreamException("Unexpected end of document in a fragment at depth " + fragmentDepth,
+                    this.reader.getLocation());
+        }
+        this.reader.next();
+        return true;
+    }
+
+    private void startElement() {
+        this.depth++;
+        if (this.matched == this.depth - 1 && this.depth <= this.path.length
+                && this.path[this.depth - 1].equals(this.reader.getName())) {
+            this.matched = this.depth;
+            final int namespaceCount = this.reader.getNamespaceCount();
+            for (int i = 0; i < namespaceCount; i++) {
+                this.namespacePrefixes.add(nullToEmpty(this.reader.getNamespacePrefix(i)));
+                this.namespaceURIs.add(nullToEmpty(this.reader.getNamespaceURI(i)));
+            }
+            this.namespaceCounts.add(namespaceCount);
+            this.pending = this.depth == this.path.length;
+        }
+    }
+
+    private void endElement() {
+        if (this.matched == this.depth) {
+            final int namespaceCount = this.namespaceCounts.remove(this.namespaceCounts.size() - 1);
+            for (int i = 0; i < namespaceCount; i++) {
+                this.namespacePrefixes.remove(this.namespacePrefixes.size() - 1);
+                this.namespaceURIs.remove(this.namespaceURIs.size() - 1);
+            }
+            this.matched--;
+        }
+        this.depth--;
+    }
+
+    /**
+     * @return the namespaces in scope of the fragment, by prefix, including the ones declared on the fragment
+     */
+    private Map<String, String> getInScopeNamespaces() {
+        final Map<String, String> namespaces = new LinkedHashMap<String, String>();
+        for (int i = 0; i < this.namespacePrefixes.size(); i++) {
+            namespaces.put(this.namespacePrefixes.get(i), this.namespaceURIs.get(i));
+        }
+        // no need to undeclare the default namespace on a root element
+        if ("".equals(namespaces.get(XMLConstants.DEFAULT_NS_PREFIX))) {
+            namespaces.remove(XMLConstants.DEFAULT_NS_PREFIX);
+        }
+        return namespaces;
+    }
+
+    private static void declareNamespace(final Element element, final String prefix, final String namespaceURI) {
+        if (prefix == null || prefix.isEmpty()) {
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE,
+                    nullToEmpty(namespaceURI));
+        } else {
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                    nullToEmpty(namespaceURI));
+        }
+    }
+
+    private static void writeNamespace(final XMLStreamWriter writer, final String prefix, final String namespaceURI)
+            throws XMLStreamException {
+        if (prefix == null || prefix.isEmpty()) {
+            writer.writeDefaultNamespace(nullToEmpty(namespaceURI));
+        } else {
+            writer.writeNamespace(prefix, nullToEmpty(namespaceURI));
+        }
+    }
+
+    private static String qualifiedName(final String prefix, final String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(final String namespaceURI) {
+        return namespaceURI == null || namespaceURI.isEmpty() ? null : namespaceURI;
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -147,7 +147,7 @@ public final class XMLHelper {
                 transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
             }
 
-            transformer.transform(new DOMSource(node), new StreamResult(out));
+            Transformers.transform(transformer, new DOMSource(node), new StreamResult(out));
 
             return out.toString();
         } finally {
@@ -181,7 +181,7 @@ public final class XMLHelper {
         try {
             transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
             transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.transform(new DOMSource(document), new StreamResult(outputStream));
+            Transformers.transform(transformer, new DOMSource(document), new StreamResult(outputStream));
         } finally {
             Transformers.releaseTransformer(transformer);
         }
@@ -214,7 +214,7 @@ public final class XMLHelper {
 
         final DocumentBuilder documentBuilder = DocumentBuilders.takeDocumentBuilder();
         try {
-            final Document document = documentBuilder.parse(inputSource);
+            final Document document = DocumentBuilders.parse(documentBuilder, inputSource);
             document.normalize();
             
             return document;
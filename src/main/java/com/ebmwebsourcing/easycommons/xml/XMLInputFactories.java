@@ -15,20 +15,50 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 
 /**
+ * <p>
+ * The {@link XMLInputFactory} are thread-safe once configured, so a configured factory is shared by all the
+ * threads, see {@link #getXMLInputFactory(Map)}, and used to create the readers. The implementations known
+ * not to be thread-safe are used from a pool instead.
+ * </p>
+ * <p>
+ * Setting the system property {@value #REUSE_READERS_PROPERTY} to {@code true} makes the readers opened by
+ * {@code openXMLStreamReader} created by a factory of a dedicated pool, kept until the reader is closed, when
+ * the implementation can reuse its last closed reader, as the JDK one does. Parsing many small documents with
+ * the same reader and its buffers is faster, but each open reader holds a factory of the pool. The factories
+ * of {@link #takeXMLInputFactory()} and {@link #leaseXMLInputFactory()} never reuse their readers.
+ * </p>
+ * <p>
  * A static pool of {@link XMLInputFactory} to improve {@link XMLInputFactory}
  * creation efficiency. A {@link XMLInputFactory} is initialized the first time
  * this class is used. An infinite number (integer maximum value) of
- * {@link XMLInputFactory} may be created. They are never evicted.
+ * {@link XMLInputFactory} may be created.
+ * The idle ones are evicted when the load decreases (see {@link AdaptiveSizing#forUnboundedPool()}).
+ * </p>
  * 
  * @author Christophe DENEUX - EBM WebSourcing
  */
@@ -37,6 +67,93 @@ public final class XMLInputFactories {
     private static final XMLInputFactoryResourcePool xmlInputFactoryPool = new XMLInputFactoryResourcePool(
             1, Integer.MAX_VALUE, PoolPolicy.WAIT);
 
+    static {
+        xmlInputFactoryPool.setAdaptiveSizing(AdaptiveSizing.forUnboundedPool());
+    }
+
+    // the implementations whose factories cannot be used by several threads at the same time
+    private static final Set<String> UNSAFE_IMPLEMENTATIONS = Collections
+            .unmodifiableSet(new HashSet<String>(Arrays.asList("com.bea.xml.stream.MXParserFactory")));
+
+    // the shared factories by configuration
+    private static final ConcurrentMap<Map<String, Object>, XMLInputFactory> sharedFactories = new ConcurrentHashMap<Map<String, Object>, XMLInputFactory>();
+
+    private static final boolean SHARED;
+
+    /**
+     * The system property enabling the reuse of the readers by the factories of the pool
+     */
+    public static final String REUSE_READERS_PROPERTY = "com.ebmwebsourcing.easycommons.xml.reuseReaders";
+
+    // reusing its last closed reader, a factory leased until the reader is closed avoids the reader creation
+    private static final boolean READERS_REUSED;
+
+    static {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        SHARED = !UNSAFE_IMPLEMENTATIONS.contains(xmlInputFactory.getClass().getName());
+        READERS_REUSED = Boolean.getBoolean(REUSE_READERS_PROPERTY)
+                && xmlInputFactory.isPropertySupported(XMLInputFactoryResourcePool.REUSE_INSTANCE);
+    }
+
+    private static final XMLInputFactory defaultFactory = SHARED ? getXMLInputFactory() : null;
+
+    // the factories reusing their readers, null unless enabled
+    private static final XMLInputFactoryResourcePool readerReusingFactoryPool;
+
+    static {
+        if (READERS_REUSED) {
+            readerReusingFactoryPool = new XMLInputFactoryResourcePool(1, Integer.MAX_VALUE, PoolPolicy.WAIT,
+                    true);
+            readerReusingFactoryPool.setAdaptiveSizing(AdaptiveSizing.forUnboundedPool());
+        } else {
+            readerReusingFactoryPool = null;
+        }
+    }
+
+    /**
+     * Get the {@link XMLInputFactory} with the default configuration, shared by all the threads. It cannot
+     * be configured.
+     * 
+     * @return the shared {@link XMLInputFactory}, or a new one if the implementation is known not to be
+     *         thread-safe
+     */
+    public final static XMLInputFactory getXMLInputFactory() {
+        return getXMLInputFactory(Collections.<String, Object> emptyMap());
+    }
+
+    /**
+     * Get the {@link XMLInputFactory} configured with properties, shared by all the threads getting it with
+     * the same properties. It cannot be configured anymore.
+     * 
+     * @param properties
+     *            the properties of the factory, see {@link XMLInputFactory#setProperty(String, Object)}
+     * @return the shared {@link XMLInputFactory}, or a new one if the implementation is known not to be
+     *         thread-safe
+     * @throws IllegalArgumentException
+     *             if a property is not supported
+     */
+    public final static XMLInputFactory getXMLInputFactory(final Map<String, ?> properties) {
+        if (!SHARED) {
+            return newXMLInputFactory(properties);
+        }
+        XMLInputFactory xmlInputFactory = sharedFactories.get(properties);
+        if (xmlInputFactory == null) {
+            final Map<String, Object> configuration = Collections
+                    .unmodifiableMap(new HashMap<String, Object>(properties));
+            xmlInputFactory = sharedFactories.computeIfAbsent(configuration,
+                    key -> new ImmutableXMLInputFactory(newXMLInputFactory(key)));
+        }
+        return xmlInputFactory;
+    }
+
+    private static XMLInputFactory newXMLInputFactory(final Map<String, ?> properties) {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        for (final Map.Entry<String, ?> property : properties.entrySet()) {
+            xmlInputFactory.setProperty(property.getKey(), property.getValue());
+        }
+        return xmlInputFactory;
+    }
+
     /**
      * Take a {@link XMLInputFactory} from the pool
      * 
@@ -60,9 +177,29 @@ public final class XMLInputFactories {
         xmlInputFactoryPool.release(xmlInputFactory);
     }
 
+    /**
+     * Take a {@link XMLInputFactory} from the pool, in a {@link Lease} releasing it
+     * when closed:
+     * 
+     * <pre>
+     * try (Lease&lt;XMLInputFactory&gt; lease = leaseXMLInputFactory()) {
+     *     // use lease.get()
+     * }
+     * </pre>
+     * 
+     * @return the {@link Lease} of one {@link XMLInputFactory}
+     * 
+     * @throws PoolException
+     *             if the current thread waits for a {@link XMLInputFactory}
+     *             of the pool and is interrupted
+     */
+    public final static Lease<XMLInputFactory> leaseXMLInputFactory() throws PoolException {
+        return xmlInputFactoryPool.lease();
+    }
+
     /**
      * Create a {@link XMLStreamReader} from a specified {@link InputStream} by
-     * using the pool of {@link XMLInputFactory}
+     * using the shared or pooled {@link XMLInputFactory}
      * 
      * @param InputStream
      *            an {@link InputStream}
@@ -74,15 +211,176 @@ public final class XMLInputFactories {
      */
     public final static XMLStreamReader createXMLStreamReader(final InputStream InputStream)
             throws XMLStreamException {
-        XMLInputFactory xmlInputFactory = null;
+        if (SHARED) {
+            return defaultFactory.createXMLStreamReader(InputStream);
+        }
+        try (Lease<XMLInputFactory> lease = leaseXMLInputFactory()) {
+            return lease.get().createXMLStreamReader(InputStream);
+        }
+    }
+
+    /**
+     * Create a {@link XMLStreamReader} with a {@link XMLInputFactory} of the pool
+     */
+    private interface ReaderCreation {
+
+        XMLStreamReader create(XMLInputFactory xmlInputFactory) throws XMLStreamException;
+    }
+
+    private static PooledXMLStreamReader open(final ReaderCreation creation) throws XMLStreamException {
+        return open(creation, null);
+    }
+
+    private static PooledXMLStreamReader open(final ReaderCreation creation, final InputStream input)
+            throws XMLStreamException {
+        if (SHARED && !READERS_REUSED) {
+            return new PooledXMLStreamReader(creation.create(defaultFactory), null, input);
+        }
+        final Lease<XMLInputFactory> lease = READERS_REUSED ? readerReusingFactoryPool.lease()
+                : leaseXMLInputFactory();
+        try {
+            return new PooledXMLStreamReader(creation.create(lease.get()), lease, input);
+        } catch (XMLStreamException | RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamReader} from a specified {@link InputStream}, keeping its
+     * pooled {@link XMLInputFactory}, if any, until it is closed
+     * 
+     * @param inputStream
+     *            an {@link InputStream}
+     * 
+     * @return the {@link PooledXMLStreamReader}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamReader openXMLStreamReader(final InputStream inputStream)
+            throws XMLStreamException {
+        return open(xmlInputFactory -> xmlInputFactory.createXMLStreamReader(inputStream));
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamReader} from a specified {@link InputStream} and encoding, keeping its
+     * pooled {@link XMLInputFactory}, if any, until it is closed
+     * 
+     * @param inputStream
+     *            an {@link InputStream}
+     * @param encoding
+     *            the character encoding of the stream
+     * 
+     * @return the {@link PooledXMLStreamReader}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamReader openXMLStreamReader(final InputStream inputStream,
+            final String encoding) throws XMLStreamException {
+        return open(xmlInputFactory -> xmlInputFactory.createXMLStreamReader(inputStream, encoding));
+    }
 
+    /**
+     * Create a {@link PooledXMLStreamReader} from a specified {@link Reader}, keeping its
+     * pooled {@link XMLInputFactory}, if any, until it is closed
+     * 
+     * @param reader
+     *            a {@link Reader}
+     * 
+     * @return the {@link PooledXMLStreamReader}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamReader openXMLStreamReader(final Reader reader)
+            throws XMLStreamException {
+        return open(xmlInputFactory -> xmlInputFactory.createXMLStreamReader(reader));
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamReader} from a specified byte array, without copying it, keeping its
+     * pooled {@link XMLInputFactory}, if any, until it is closed
+     * 
+     * @param bytes
+     *            the XML document
+     * 
+     * @return the {@link PooledXMLStreamReader}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamReader openXMLStreamReader(final byte[] bytes)
+            throws XMLStreamException {
+        return openXMLStreamReader(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamReader} from a part of a specified byte array, without copying it,
+     * keeping its pooled {@link XMLInputFactory}, if any, until it is closed
+     * 
+     * @param bytes
+     *            the array containing the XML document
+     * @param offset
+     *            the index of the first byte of the document
+     * @param length
+     *            the number of bytes of the document
+     * 
+     * @return the {@link PooledXMLStreamReader}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamReader openXMLStreamReader(final byte[] bytes, final int offset,
+            final int length) throws XMLStreamException {
+        return openXMLStreamReader(new ByteArrayInputStream(bytes, offset, length));
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamReader} from a specified {@link Source}, keeping its pooled
+     * {@link XMLInputFactory}, if any, until it is closed. The supported sources depend on the StAX
+     * implementation.
+     * 
+     * @param source
+     *            a {@link Source}
+     * 
+     * @return the {@link PooledXMLStreamReader}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     * @throws UnsupportedOperationException
+     *             if the source is not supported by the StAX implementation
+     */
+    public final static PooledXMLStreamReader openXMLStreamReader(final Source source)
+            throws XMLStreamException {
+        return open(xmlInputFactory -> xmlInputFactory.createXMLStreamReader(source));
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamReader} reading a file, keeping its pooled {@link XMLInputFactory}, if any,
+     * until it is closed. A big file is mapped in memory and read without copying it through read system calls. The file
+     * is closed with the reader.
+     * 
+     * @param path
+     *            the file to read, also the system id of the document
+     * 
+     * @return the {@link PooledXMLStreamReader}, to close
+     * 
+     * @throws IOException
+     *             if the file cannot be opened
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamReader openXMLStreamReader(final Path path)
+            throws IOException, XMLStreamException {
+        final InputStream inputStream = MappedInputStream.open(path);
         try {
-            xmlInputFactory = takeXMLInputFactory();
-            return xmlInputFactory.createXMLStreamReader(InputStream);
-        } finally {
-            if(xmlInputFactory != null) {
-                releaseXMLInputFactory(xmlInputFactory);
-            }
+            return open(xmlInputFactory -> xmlInputFactory.createXMLStreamReader(path.toUri().toString(),
+                    inputStream), inputStream);
+        } catch (XMLStreamException | RuntimeException e) {
+            inputStream.close();
+            throw e;
         }
     }
 }
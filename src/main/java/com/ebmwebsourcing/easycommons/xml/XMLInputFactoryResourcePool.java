@@ -15,9 +15,13 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.xml.stream.XMLInputFactory;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
 import com.ebmwebsourcing.easycommons.pooling.GenericResourcePool;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 import com.ebmwebsourcing.easycommons.pooling.ResourceHandler;
@@ -30,18 +34,28 @@ import com.ebmwebsourcing.easycommons.pooling.ResourceHandler;
  */
 public class XMLInputFactoryResourcePool {
 
+    // the property of the JDK implementation reusing the last closed reader, with its buffers
+    static final String REUSE_INSTANCE = "reuse-instance";
+
     /**
      * {@link XMLInputFactory} resource handler to manage
      * {@link XMLInputFactory} life cycle methods
      */
     private static class XMLInputFactoryResourceHandler implements ResourceHandler<XMLInputFactory> {
 
-        public XMLInputFactoryResourceHandler() {
+        private final boolean readersReused;
+
+        public XMLInputFactoryResourceHandler(final boolean readersReused) {
+            this.readersReused = readersReused;
         }
 
         @Override
         public XMLInputFactory create() {
-            return XMLInputFactory.newInstance();
+            final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+            if (this.readersReused && xmlInputFactory.isPropertySupported(REUSE_INSTANCE)) {
+                xmlInputFactory.setProperty(REUSE_INSTANCE, Boolean.TRUE);
+            }
+            return xmlInputFactory;
         }
 
         @Override
@@ -73,7 +87,17 @@ public class XMLInputFactoryResourcePool {
      */
     public XMLInputFactoryResourcePool(int minPoolSize, int maxPoolSize,
             PoolPolicy poolPolicy) {
-        XMLInputFactoryResourceHandler xmlInputFactoryResourceHandler = new XMLInputFactoryResourceHandler();
+        this(minPoolSize, maxPoolSize, poolPolicy, false);
+    }
+
+    /**
+     * Instantiate a pool whose {@link XMLInputFactory} may reuse their last closed reader, with its buffers,
+     * for the next reader they create
+     */
+    XMLInputFactoryResourcePool(int minPoolSize, int maxPoolSize, PoolPolicy poolPolicy,
+            boolean readersReused) {
+        XMLInputFactoryResourceHandler xmlInputFactoryResourceHandler = new XMLInputFactoryResourceHandler(
+                readersReused);
         this.xmlInputFactoryPool = new GenericResourcePool<XMLInputFactory>(
                 xmlInputFactoryResourceHandler, minPoolSize, maxPoolSize, poolPolicy);
     }
@@ -96,6 +120,33 @@ public class XMLInputFactoryResourcePool {
         return this.xmlInputFactoryPool.take();
     }
 
+    /**
+     * Take one unused {@link XMLInputFactory} in the current pool, in a {@link Lease}
+     * releasing it when closed.
+     * 
+     * @return the {@link Lease} of one {@link XMLInputFactory}
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public Lease<XMLInputFactory> lease() {
+        return this.xmlInputFactoryPool.lease();
+    }
+
+    /**
+     * Take one unused {@link XMLInputFactory} in the current pool without blocking. If none is
+     * available, the returned future is completed when one is released.
+     * 
+     * @return the future of one {@link XMLInputFactory}, completed exceptionally by a
+     *         {@link PoolException} if there is no more available resource in the pool
+     *         for the pool policy REJECT
+     */
+    public CompletableFuture<XMLInputFactory> takeAsync() {
+        return this.xmlInputFactoryPool.takeAsync();
+    }
+
     /**
      * Release the specified {@link XMLInputFactory} After putting back the
      * {@link XMLInputFactory} in the pool, the method onRelease() of the
@@ -107,4 +158,15 @@ public class XMLInputFactoryResourcePool {
     public final void release(final XMLInputFactory xmlInputFactory) {
         this.xmlInputFactoryPool.release(xmlInputFactory);
     }
+
+    /**
+     * Adapt the size of the pool to the load
+     * 
+     * @param adaptiveSizing
+     *            the settings of the adaptive sizing, null to disable it
+     * @see GenericResourcePool#setAdaptiveSizing(AdaptiveSizing)
+     */
+    public void setAdaptiveSizing(final AdaptiveSizing adaptiveSizing) {
+        this.xmlInputFactoryPool.setAdaptiveSizing(adaptiveSizing);
+    }
 }
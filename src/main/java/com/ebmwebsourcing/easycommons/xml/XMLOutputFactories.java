@@ -16,18 +16,38 @@
 package com.ebmwebsourcing.easycommons.xml;
 
 import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 
 /**
+ * <p>
+ * The {@link XMLOutputFactory} are thread-safe once configured, so a configured factory is shared by all
+ * the threads, see {@link #getXMLOutputFactory(Map)}, and used to create the writers. The implementations
+ * known not to be thread-safe are used from a pool instead.
+ * </p>
+ * <p>
  * A static pool of {@link XMLOutputFactory} to improve {@link XMLOutputFactory} creation efficiency. 
  * A {@link XMLOutputFactory} is initialized the first time this class is used.
- * An infinite number (integer maximum value) of {@link XMLOutputFactory} may be created. They are never evicted.
+ * An infinite number (integer maximum value) of {@link XMLOutputFactory} may be created.
+ * The idle ones are evicted when the load decreases (see {@link AdaptiveSizing#forUnboundedPool()}).
+ * </p>
  * 
  * @author Nicolas Oddoux - EBM WebSourcing
  */
@@ -35,6 +55,83 @@ public final class XMLOutputFactories {
 
     private static final XMLOutputFactoryResourcePool xmlOutputFactoryPool = new XMLOutputFactoryResourcePool(1, Integer.MAX_VALUE, PoolPolicy.WAIT);
 
+    static {
+        xmlOutputFactoryPool.setAdaptiveSizing(AdaptiveSizing.forUnboundedPool());
+    }
+
+    // the implementations whose factories cannot be used by several threads at the same time
+    private static final Set<String> UNSAFE_IMPLEMENTATIONS = Collections
+            .unmodifiableSet(new HashSet<String>(Arrays.asList("com.bea.xml.stream.XMLOutputFactoryBase")));
+
+    // the shared factories by configuration
+    private static final ConcurrentMap<Map<String, Object>, XMLOutputFactory> sharedFactories = new ConcurrentHashMap<Map<String, Object>, XMLOutputFactory>();
+
+    private static final boolean SHARED = !UNSAFE_IMPLEMENTATIONS
+            .contains(XMLOutputFactory.newFactory().getClass().getName());
+
+    private static final XMLOutputFactory defaultFactory = SHARED ? getXMLOutputFactory() : null;
+
+    /**
+     * Get the {@link XMLOutputFactory} with the default configuration, shared by all the threads. It cannot
+     * be configured.
+     * 
+     * @return the shared {@link XMLOutputFactory}, or a new one if the implementation is known not to be
+     *         thread-safe
+     */
+    public final static XMLOutputFactory getXMLOutputFactory() {
+        return getXMLOutputFactory(Collections.<String, Object> emptyMap());
+    }
+
+    /**
+     * Get the {@link XMLOutputFactory} configured with properties, shared by all the threads getting it with
+     * the same properties. It cannot be configured anymore.
+     * 
+     * @param properties
+     *            the properties of the factory, see {@link XMLOutputFactory#setProperty(String, Object)}
+     * @return the shared {@link XMLOutputFactory}, or a new one if the implementation is known not to be
+     *         thread-safe
+     * @throws IllegalArgumentException
+     *             if a property is not supported
+     */
+    public final static XMLOutputFactory getXMLOutputFactory(final Map<String, ?> properties) {
+        if (!SHARED) {
+            return newXMLOutputFactory(properties);
+        }
+        XMLOutputFactory xmlOutputFactory = sharedFactories.get(properties);
+        if (xmlOutputFactory == null) {
+            final Map<String, Object> configuration = Collections
+                    .unmodifiableMap(new HashMap<String, Object>(properties));
+            xmlOutputFactory = sharedFactories.computeIfAbsent(configuration,
+                    key -> new ImmutableXMLOutputFactory(newXMLOutputFactory(key)));
+        }
+        return xmlOutputFactory;
+    }
+
+    private static XMLOutputFactory newXMLOutputFactory(final Map<String, ?> properties) {
+        final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
+        for (final Map.Entry<String, ?> property : properties.entrySet()) {
+            xmlOutputFactory.setProperty(property.getKey(), property.getValue());
+        }
+        return xmlOutputFactory;
+    }
+
+    /**
+     * Create a {@link XMLStreamWriter} with a {@link XMLOutputFactory}
+     */
+    private interface WriterCreation {
+
+        XMLStreamWriter create(XMLOutputFactory xmlOutputFactory) throws XMLStreamException;
+    }
+
+    private static XMLStreamWriter create(final WriterCreation creation) throws XMLStreamException {
+        if (SHARED) {
+            return creation.create(defaultFactory);
+        }
+        try (Lease<XMLOutputFactory> lease = leaseXMLOutputFactory()) {
+            return creation.create(lease.get());
+        }
+    }
+
     /**
      * Take a {@link XMLOutputFactory} from the pool
      * 
@@ -57,9 +154,29 @@ public final class XMLOutputFactories {
         xmlOutputFactoryPool.release(xmlOutputFactory);
     }
 
+    /**
+     * Take a {@link XMLOutputFactory} from the pool, in a {@link Lease} releasing it
+     * when closed:
+     * 
+     * <pre>
+     * try (Lease&lt;XMLOutputFactory&gt; lease = leaseXMLOutputFactory()) {
+     *     // use lease.get()
+     * }
+     * </pre>
+     * 
+     * @return the {@link Lease} of one {@link XMLOutputFactory}
+     * 
+     * @throws PoolException
+     *             if the current thread waits for a {@link XMLOutputFactory}
+     *             of the pool and is interrupted
+     */
+    public final static Lease<XMLOutputFactory> leaseXMLOutputFactory() throws PoolException {
+        return xmlOutputFactoryPool.lease();
+    }
+
     /**
      * Create a {@link XMLStreamWriter} from a specified {@link OutputStream} by
-     * using the pool of {@link XMLOutputFactory}
+     * using the shared or pooled {@link XMLOutputFactory}
      * 
      * @param outputStream
      *            an {@link OutputStream}
@@ -69,17 +186,91 @@ public final class XMLOutputFactories {
      * @throws XMLStreamException
      *             if an unexpected processing errors occurs
      */
-    public final static XMLStreamWriter createXMLStreamWriter(OutputStream outputStream)
+    public final static XMLStreamWriter createXMLStreamWriter(final OutputStream outputStream)
             throws XMLStreamException {
-        XMLOutputFactory xmlOutputFactory = null;
+        return create(xmlOutputFactory -> xmlOutputFactory.createXMLStreamWriter(outputStream));
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamWriter} writing to a specified {@link OutputStream} through a buffer
+     * reused by the thread, by using the shared or pooled {@link XMLOutputFactory}
+     * 
+     * @param outputStream
+     *            an {@link OutputStream}, written when the writer is flushed or closed
+     * 
+     * @return the {@link PooledXMLStreamWriter}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamWriter openXMLStreamWriter(final OutputStream outputStream)
+            throws XMLStreamException {
+        return openXMLStreamWriter(outputStream, null);
+    }
 
+    /**
+     * Create a {@link PooledXMLStreamWriter} writing to a specified {@link OutputStream} with an encoding,
+     * through a buffer reused by the thread, by using the shared or pooled {@link XMLOutputFactory}
+     * 
+     * @param outputStream
+     *            an {@link OutputStream}, written when the writer is flushed or closed
+     * @param encoding
+     *            the character encoding, null for the default one of the implementation
+     * 
+     * @return the {@link PooledXMLStreamWriter}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamWriter openXMLStreamWriter(final OutputStream outputStream,
+            final String encoding) throws XMLStreamException {
+        final ReusableOutputBuffer buffer = ReusableOutputBuffer.open(outputStream);
         try {
-            xmlOutputFactory = takeXMLOutputFactory();
-            return xmlOutputFactory.createXMLStreamWriter(outputStream);
-        } finally {
-            if (xmlOutputFactory != null) {
-                releaseXMLOutputFactory(xmlOutputFactory);
-            }
+            final XMLStreamWriter writer = create(xmlOutputFactory -> encoding == null
+                    ? xmlOutputFactory.createXMLStreamWriter(buffer)
+                    : xmlOutputFactory.createXMLStreamWriter(buffer, encoding));
+            return new PooledXMLStreamWriter(writer, buffer);
+        } catch (XMLStreamException | RuntimeException e) {
+            buffer.release();
+            throw e;
         }
     }
+
+    /**
+     * Create a {@link PooledXMLStreamWriter} writing to a specified {@link Writer}, by using the shared or
+     * pooled {@link XMLOutputFactory}
+     * 
+     * @param writer
+     *            a {@link Writer}
+     * 
+     * @return the {@link PooledXMLStreamWriter}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     */
+    public final static PooledXMLStreamWriter openXMLStreamWriter(final Writer writer)
+            throws XMLStreamException {
+        return new PooledXMLStreamWriter(create(xmlOutputFactory -> xmlOutputFactory.createXMLStreamWriter(writer)),
+                null);
+    }
+
+    /**
+     * Create a {@link PooledXMLStreamWriter} writing to a specified {@link Result}, by using the shared or
+     * pooled {@link XMLOutputFactory}. The supported results depend on the StAX implementation.
+     * 
+     * @param result
+     *            a {@link Result}
+     * 
+     * @return the {@link PooledXMLStreamWriter}, to close
+     * 
+     * @throws XMLStreamException
+     *             if an unexpected processing errors occurs
+     * @throws UnsupportedOperationException
+     *             if the result is not supported by the StAX implementation
+     */
+    public final static PooledXMLStreamWriter openXMLStreamWriter(final Result result)
+            throws XMLStreamException {
+        return new PooledXMLStreamWriter(create(xmlOutputFactory -> xmlOutputFactory.createXMLStreamWriter(result)),
+                null);
+    }
 }
@@ -15,9 +15,13 @@
  */
 package com.ebmwebsourcing.easycommons.xml;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.xml.stream.XMLOutputFactory;
 
+import com.ebmwebsourcing.easycommons.pooling.AdaptiveSizing;
 import com.ebmwebsourcing.easycommons.pooling.GenericResourcePool;
+import com.ebmwebsourcing.easycommons.pooling.Lease;
 import com.ebmwebsourcing.easycommons.pooling.PoolException;
 import com.ebmwebsourcing.easycommons.pooling.PoolPolicy;
 import com.ebmwebsourcing.easycommons.pooling.ResourceHandler;
@@ -93,6 +97,33 @@ public class XMLOutputFactoryResourcePool {
         return this.xmlOutputFactoryPool.take();
     }
 
+    /**
+     * Take one unused {@link XMLOutputFactory} in the current pool, in a {@link Lease}
+     * releasing it when closed.
+     * 
+     * @return the {@link Lease} of one {@link XMLOutputFactory}
+     * 
+     * @throws PoolException
+     *             if the current thread is interrupted for the pool policy WAIT
+     *             or if there is no more available resource in the pool for the
+     *             pool policy REJECT
+     */
+    public Lease<XMLOutputFactory> lease() {
+        return this.xmlOutputFactoryPool.lease();
+    }
+
+    /**
+     * Take one unused {@link XMLOutputFactory} in the current pool without blocking. If none is
+     * available, the returned future is completed when one is released.
+     * 
+     * @return the future of one {@link XMLOutputFactory}, completed exceptionally by a
+     *         {@link PoolException} if there is no more available resource in the pool
+     *         for the pool policy REJECT
+     */
+    public CompletableFuture<XMLOutputFactory> takeAsync() {
+        return this.xmlOutputFactoryPool.takeAsync();
+    }
+
     /**
      * Release the specified {@link XMLOutputFactory} After putting back the
      * {@link XMLOutputFactory} in the pool, the method onRelease() of the
@@ -104,4 +135,15 @@ public class XMLOutputFactoryResourcePool {
     public final void release(final XMLOutputFactory xmlOutputFactory) {
         this.xmlOutputFactoryPool.release(xmlOutputFactory);
     }
+
+    /**
+     * Adapt the size of the pool to the load
+     * 
+     * @param adaptiveSizing
+     *            the settings of the adaptive sizing, null to disable it
+     * @see GenericResourcePool#setAdaptiveSizing(AdaptiveSizing)
+     */
+    public void setAdaptiveSizing(final AdaptiveSizing adaptiveSizing) {
+        this.xmlOutputFactoryPool.setAdaptiveSizing(adaptiveSizing);
+    }
 }
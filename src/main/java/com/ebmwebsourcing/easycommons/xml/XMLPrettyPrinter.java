@@ -180,8 +180,34 @@ public class XMLPrettyPrinter {
         prettify(source, out, null);
     }
 
+    /**
+     * Prettify the source into the output stream, recording a Flight Recorder event of the pretty printing when it
+     * is enabled at its start. A recording started during the pretty printing does not record it.
+     */
     public static void prettify(final Source source, final OutputStream out, final String encoding)
             throws TransformerException {
+        final PrettyPrintEvent event = new PrettyPrintEvent();
+        if (!event.isEnabled()) {
+            doPrettify(source, out, encoding);
+            return;
+        }
+
+        final CountingOutputStream counter = new CountingOutputStream(out);
+        event.begin();
+        try {
+            doPrettify(source, counter, encoding);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.sourceType = source == null ? null : source.getClass().getName();
+                event.payloadSize = counter.getCount();
+                event.commit();
+            }
+        }
+    }
+
+    private static void doPrettify(final Source source, final OutputStream out, final String encoding)
+            throws TransformerException {
         final Source stylesheetSource = getStyleSheetSource();
         final Transformer transformer = getTransformer(stylesheetSource);
         if (encoding != null) {
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import com.ebmwebsourcing.easycommons.lang.UncheckedException;
+
+/**
+ * <p>
+ * Process the records of a XML document in parallel: the records are split by a {@link XMLFragmentSplitter} in
+ * the calling thread, then each record is parsed with a {@link javax.xml.parsers.DocumentBuilder} of the pool and
+ * processed by an {@link Executor}:
+ * </p>
+ * <pre>
+ * XMLRecordPipeline&lt;Result&gt; pipeline = new XMLRecordPipeline&lt;Result&gt;(record -&gt; process(record),
+ *         executor, 64, true);
+ * try (XMLFragmentSplitter splitter = new XMLFragmentSplitter(inputStream, batch, record)) {
+ *     pipeline.run(splitter, result -&gt; store(result));
+ * }
+ * </pre>
+ * <p>
+ * The results are delivered to the consumer in the calling thread, in the order of the records or as soon as
+ * they are processed. The number of records split but not delivered yet is bounded: the splitting waits for the
+ * delivery of a result when the bound is reached, so the memory used does not depend on the size of the document.
+ * A {@link XMLRecordPipeline} can run several documents at the same time.
+ * </p>
+ * 
+ * @param <R>
+ *            the type of the results of the records
+ */
+public final class XMLRecordPipeline<R> {
+
+    private final Function<? super Document, ? extends R> processor;
+
+    private final Executor executor;
+
+    private final int maxInFlight;
+
+    private final boolean ordered;
+
+    /**
+     * Create a {@link XMLRecordPipeline} processing the records with the common {@link ForkJoinPool}, up to twice
+     * its parallelism records being in flight
+     * 
+     * @param processor
+     *            the processing of a record, called by several threads at the same time
+     * @param ordered
+     *            true to deliver the results in the order of the records, false to deliver them as soon as they
+     *            are processed
+     */
+    public XMLRecordPipeline(final Function<? super Document, ? extends R> processor, final boolean ordered) {
+        this(processor, ForkJoinPool.commonPool(), 2 * ForkJoinPool.getCommonPoolParallelism(), ordered);
+    }
+
+    /**
+     * Create a {@link XMLRecordPipeline}
+     * 
+     * @param processor
+     *            the processing of a record, called by several threads at the same time
+     * @param executor
+     *            the {@link Executor} parsing and processing the records
+     * @param maxInFlight
+     *            the maximum number of records split but whose result is not delivered yet. It must be greater
+     *            than 0.
+     * @param ordered
+     *            true to deliver the results in the order of the records, false to deliver them as soon as they
+     *            are processed
+     */
+    public XMLRecordPipeline(final Function<? super Document, ? extends R> processor, final Executor executor,
+            final int maxInFlight, final boolean ordered) {
+        assert processor != null;
+        assert executor != null;
+        assert maxInFlight > 0;
+
+        this.processor = processor;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Split, parse and process all the records of a document, and deliver their results. If a record cannot be
+     * parsed or processed, the records not processed yet are cancelled and the failure is thrown.
+     * 
+     * @param splitter
+     *            the splitter of the document, not closed
+     * @param consumer
+     *            the consumer of the results, called by the calling thread
+     * @return the number of records
+     * 
+     * @throws XMLStreamException
+     *             if the document cannot be split
+     * @throws UncheckedException
+     *             if a record cannot be parsed, or if the calling thread is interrupted
+     * @throws RuntimeException
+     *             if a record cannot be processed, or if the consumer fails
+     */
+    public long run(final XMLFragmentSplitter splitter, final Consumer<? super R> consumer)
+            throws XMLStreamException {
+        assert splitter != null;
+        assert consumer != null;
+
+        // the records split but not delivered yet, the oldest first
+        final ArrayDeque<CompletableFuture<R>> inFlight = new ArrayDeque<CompletableFuture<R>>(this.maxInFlight);
+        // the processed records not delivered yet, when the results are not ordered
+        final BlockingQueue<CompletableFuture<R>> processed = new LinkedBlockingQueue<CompletableFuture<R>>();
+
+        long count = 0;
+        boolean succeeded = false;
+        try {
+            while (splitter.hasNext()) {
+                while (inFlight.size() >= this.maxInFlight) {
+                    consumer.accept(this.deliver(inFlight, processed, true));
+                }
+
+                final Source record = splitter.nextSource();
+                final CompletableFuture<R> result = CompletableFuture.supplyAsync(() -> this.process(record),
+                        this.executor);
+                if (!this.ordered) {
+                    result.whenComplete((value, failure) -> processed.add(result));
+                }
+                inFlight.add(result);
+                count++;
+
+                // deliver the results already available without waiting
+                while (!inFlight.isEmpty() && this.isDeliverable(inFlight, processed)) {
+                    consumer.accept(this.deliver(inFlight, processed, false));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                consumer.accept(this.deliver(inFlight, processed, true));
+            }
+            succeeded = true;
+        } finally {
+            if (!succeeded) {
+                for (final CompletableFuture<R> result : inFlight) {
+                    result.cancel(false);
+                }
+            }
+        }
+        return count;
+    }
+
+    private R process(final Source record) {
+        final Document document;
+        try {
+            document = DocumentBuilders.parse(SAXSource.sourceToInputSource(record));
+        } catch (final SAXException | IOException e) {
+            throw new UncheckedException("Cannot parse a record", e);
+        }
+        return this.processor.apply(document);
+    }
+
+    private boolean isDeliverable(final ArrayDeque<CompletableFuture<R>> inFlight,
+            final BlockingQueue<CompletableFuture<R>> processed) {
+        return this.ordered ? inFlight.peekFirst().isDone() : !processed.isEmpty();
+    }
+
+    /**
+     * Remove the next result to deliver from the records in flight, waiting for it if needed
+     */
+    private R deliver(final ArrayDeque<CompletableFuture<R>> inFlight,
+            final BlockingQueue<CompletableFuture<R>> processed, final boolean wait) {
+        try {
+            if (this.ordered) {
+                final R value = inFlight.peekFirst().get();
+                inFlight.removeFirst();
+                return value;
+            } else {
+                final CompletableFuture<R> result = wait ? processed.take() : processed.poll();
+                inFlight.remove(result);
+                return result.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedException("Interrupted while waiting for a record", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new UncheckedException("Cannot process a record", cause);
+            }
+        }
+    }
+}
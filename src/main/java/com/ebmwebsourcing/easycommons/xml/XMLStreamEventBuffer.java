@@ -0,0 +1,885 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ *
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * A replayable log of StAX events.
+ * <p>
+ * The events read from a {@link XMLStreamReader} or a {@link XMLEventReader} are recorded into two parallel arrays
+ * (event types and event payloads), so that any number of independent {@link XMLStreamReader} can then be created on
+ * the recorded events without parsing or serializing the XML again. A buffer is immutable once recorded and can be
+ * shared between threads, each reader created by {@link #newReader()} being used by only one thread.
+ * </p>
+ */
+public final class XMLStreamEventBuffer implements XMLStreamConstants {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final String[] NO_STRINGS = new String[0];
+
+    private static final QName[] NO_QNAMES = new QName[0];
+
+    /**
+     * Payload of the START_ELEMENT and END_ELEMENT events: the namespaces declared on the element are also in scope
+     * of its END_ELEMENT event.
+     */
+    private static final class ElementRecord {
+
+        final QName name;
+
+        final String[] namespacePrefixes;
+
+        final String[] namespaceURIs;
+
+        final QName[] attributeNames;
+
+        final String[] attributeValues;
+
+        final String[] attributeTypes;
+
+        ElementRecord(final QName name, final String[] namespacePrefixes, final String[] namespaceURIs,
+                final QName[] attributeNames, final String[] attributeValues, final String[] attributeTypes) {
+            this.name = name;
+            this.namespacePrefixes = namespacePrefixes;
+            this.namespaceURIs = namespaceURIs;
+            this.attributeNames = attributeNames;
+            this.attributeValues = attributeValues;
+            this.attributeTypes = attributeTypes;
+        }
+    }
+
+    private int[] types = new int[INITIAL_CAPACITY];
+
+    private Object[] payloads = new Object[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    private String version;
+
+    private String encoding;
+
+    private String characterEncodingScheme;
+
+    private boolean standalone;
+
+    private boolean standaloneSet;
+
+    private String systemId;
+
+    private XMLStreamEventBuffer() {
+    }
+
+    /**
+     * Record the events of a {@link XMLStreamReader}, starting from its current event. If the reader is positioned on
+     * a START_ELEMENT event, only the events of this element are recorded, otherwise all the remaining events of the
+     * reader are recorded. The reader is not closed.
+     *
+     * @param reader
+     *            a {@link XMLStreamReader} positioned on a START_DOCUMENT or a START_ELEMENT event
+     * @return the recorded events
+     * @throws XMLStreamException
+     *             if an error occurs while reading
+     */
+    public static XMLStreamEventBuffer record(final XMLStreamReader reader) throws XMLStreamException {
+        final XMLStreamEventBuffer buffer = new XMLStreamEventBuffer();
+        final boolean fragment = reader.getEventType() == START_ELEMENT;
+        final List<ElementRecord> openElements = new ArrayList<ElementRecord>();
+        if (reader.getLocation() != null) {
+            buffer.systemId = reader.getLocation().getSystemId();
+        }
+        int eventType = reader.getEventType();
+        while (true) {
+            switch (eventType) {
+                case START_DOCUMENT:
+                    buffer.version = reader.getVersion();
+                    buffer.encoding = reader.getEncoding();
+                    buffer.characterEncodingScheme = reader.getCharacterEncodingScheme();
+                    buffer.standalone = reader.isStandalone();
+                    buffer.standaloneSet = reader.standaloneSet();
+                    buffer.add(eventType, null);
+                    break;
+                case START_ELEMENT:
+                    final ElementRecord element = toElementRecord(reader);
+                    openElements.add(element);
+                    buffer.add(eventType, element);
+                    break;
+                case END_ELEMENT:
+                    buffer.add(eventType, openElements.remove(openElements.size() - 1));
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    buffer.add(eventType, new String[] { reader.getPITarget(), reader.getPIData() });
+                    break;
+                case ENTITY_REFERENCE:
+                    buffer.add(eventType, new String[] { reader.getLocalName(), reader.getText() });
+                    break;
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                case COMMENT:
+                case DTD:
+                    buffer.add(eventType, reader.getText());
+                    break;
+                default:
+                    buffer.add(eventType, null);
+                    break;
+            }
+            if ((fragment && openElements.isEmpty()) || !reader.hasNext()) {
+                break;
+            }
+            eventType = reader.next();
+        }
+        return buffer;
+    }
+
+    /**
+     * Record the events of a {@link XMLEventReader}, starting from its next event. If this event is a START_ELEMENT
+     * event, only the events of this element are recorded, otherwise all the remaining events of the reader are
+     * recorded. The reader is not closed.
+     *
+     * @param reader
+     *            a {@link XMLEventReader} whose next event is a START_DOCUMENT or a START_ELEMENT event
+     * @return the recorded events
+     * @throws XMLStreamException
+     *             if an error occurs while reading
+     */
+    public static XMLStreamEventBuffer record(final XMLEventReader reader) throws XMLStreamException {
+        final XMLStreamEventBuffer buffer = new XMLStreamEventBuffer();
+        final boolean fragment = reader.hasNext() && reader.peek().isStartElement();
+        final List<ElementRecord> openElements = new ArrayList<ElementRecord>();
+        if (reader.hasNext() && reader.peek().getLocation() != null) {
+            buffer.systemId = reader.peek().getLocation().getSystemId();
+        }
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            switch (event.getEventType()) {
+                case START_DOCUMENT:
+                    final StartDocument startDocument = (StartDocument) event;
+                    buffer.version = startDocument.getVersion();
+                    buffer.encoding = startDocument.encodingSet() ? startDocument.getCharacterEncodingScheme() : null;
+                    buffer.characterEncodingScheme = buffer.encoding;
+                    buffer.standalone = startDocument.isStandalone();
+                    buffer.standaloneSet = startDocument.standaloneSet();
+                    buffer.add(START_DOCUMENT, null);
+                    break;
+                case START_ELEMENT:
+                    final ElementRecord element = toElementRecord(event.asStartElement());
+                    openElements.add(element);
+                    buffer.add(START_ELEMENT, element);
+                    break;
+                case END_ELEMENT:
+                    buffer.add(END_ELEMENT, openElements.remove(openElements.size() - 1));
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    final ProcessingInstruction pi = (ProcessingInstruction) event;
+                    buffer.add(PROCESSING_INSTRUCTION, new String[] { pi.getTarget(), pi.getData() });
+                    break;
+                case ENTITY_REFERENCE:
+                    final EntityReference entityReference = (EntityReference) event;
+                    buffer.add(ENTITY_REFERENCE, new String[] { entityReference.getName(),
+                            entityReference.getDeclaration() == null ? null
+                                    : entityReference.getDeclaration().getReplacementText() });
+                    break;
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                    final Characters characters = event.asCharacters();
+                    final int type = characters.isCData() ? CDATA
+                            : characters.isIgnorableWhiteSpace() ? SPACE : CHARACTERS;
+                    buffer.add(type, characters.getData());
+                    break;
+                case COMMENT:
+                    buffer.add(COMMENT, ((Comment) event).getText());
+                    break;
+                case DTD:
+                    buffer.add(DTD, ((DTD) event).getDocumentTypeDeclaration());
+                    break;
+                default:
+                    buffer.add(event.getEventType(), null);
+                    break;
+            }
+            if (fragment && openElements.isEmpty()) {
+                break;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Write the events read from a {@link XMLStreamReader}, starting from its current event, to a
+     * {@link XMLStreamWriter}. The namespace declarations are written as read, so the writer must not be
+     * namespace-repairing. Neither the reader nor the writer is closed, but the writer is flushed.
+     *
+     * @param reader
+     *            a {@link XMLStreamReader} positioned on a START_DOCUMENT or a START_ELEMENT event
+     * @param writer
+     *            the {@link XMLStreamWriter} to write to
+     * @param encoding
+     *            the encoding to declare in the XML declaration
+     * @throws XMLStreamException
+     *             if an error occurs while reading or writing
+     */
+    public static void copy(final XMLStreamReader reader, final XMLStreamWriter writer, final String encoding)
+            throws XMLStreamException {
+        final boolean fragment = reader.getEventType() == START_ELEMENT;
+        int depth = 0;
+        int eventType = reader.getEventType();
+        while (true) {
+            switch (eventType) {
+                case START_DOCUMENT:
+                    final String version = reader.getVersion();
+                    writer.writeStartDocument(encoding, version == null ? "1.0" : version);
+                    break;
+                case START_ELEMENT:
+                    depth++;
+                    writer.writeStartElement(nonNull(reader.getPrefix()), reader.getLocalName(),
+                            nonNull(reader.getNamespaceURI()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        final String prefix = reader.getNamespacePrefix(i);
+                        if (prefix == null || prefix.isEmpty()) {
+                            writer.writeDefaultNamespace(nonNull(reader.getNamespaceURI(i)));
+                        } else {
+                            writer.writeNamespace(prefix, nonNull(reader.getNamespaceURI(i)));
+                        }
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        final String namespaceURI = reader.getAttributeNamespace(i);
+                        if (namespaceURI == null || namespaceURI.isEmpty()) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        } else {
+                            writer.writeAttribute(nonNull(reader.getAttributePrefix(i)), namespaceURI,
+                                    reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                    }
+                    break;
+                case END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case CHARACTERS:
+                case SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(),
+                            reader.getTextLength());
+                    break;
+                case CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    if (reader.getPIData() == null) {
+                        writer.writeProcessingInstruction(reader.getPITarget());
+                    } else {
+                        writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    }
+                    break;
+                case ENTITY_REFERENCE:
+                    writer.writeEntityRef(reader.getLocalName());
+                    break;
+                case DTD:
+                    writer.writeDTD(reader.getText());
+                    break;
+                case END_DOCUMENT:
+                    writer.writeEndDocument();
+                    break;
+                default:
+                    break;
+            }
+            if ((fragment && depth == 0) || !reader.hasNext()) {
+                break;
+            }
+            eventType = reader.next();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Create a new {@link XMLStreamReader} replaying the recorded events, positioned on the first recorded event.
+     *
+     * @return a new {@link XMLStreamReader}, independent from the other readers of this buffer
+     */
+    public XMLStreamReader newReader() {
+        return new Replayer();
+    }
+
+    /**
+     * Write the recorded events to a {@link XMLStreamWriter}.
+     *
+     * @param writer
+     *            the {@link XMLStreamWriter} to write to
+     * @param encoding
+     *            the encoding to declare in the XML declaration
+     * @throws XMLStreamException
+     *             if an error occurs while writing
+     * @see #copy(XMLStreamReader, XMLStreamWriter, String)
+     */
+    public void writeTo(final XMLStreamWriter writer, final String encoding) throws XMLStreamException {
+        copy(this.newReader(), writer, encoding);
+    }
+
+    /**
+     * @return the number of recorded events
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the buffer whose events are replayed by the specified reader
+     *
+     * @param reader
+     *            a {@link XMLStreamReader}
+     * @return the buffer replayed by the reader, or {@code null} if the reader was not created by
+     *         {@link #newReader()}
+     */
+    public static XMLStreamEventBuffer getReplayedBuffer(final XMLStreamReader reader) {
+        if (reader instanceof Replayer) {
+            return ((Replayer) reader).getBuffer();
+        } else {
+            return null;
+        }
+    }
+
+    private void add(final int type, final Object payload) {
+        if (this.size == this.types.length) {
+            final int newCapacity = this.size << 1;
+            this.types = Arrays.copyOf(this.types, newCapacity);
+            this.payloads = Arrays.copyOf(this.payloads, newCapacity);
+        }
+        this.types[this.size] = type;
+        this.payloads[this.size] = payload;
+        this.size++;
+    }
+
+    private static ElementRecord toElementRecord(final XMLStreamReader reader) {
+        final int namespaceCount = reader.getNamespaceCount();
+        final String[] namespacePrefixes = namespaceCount == 0 ? NO_STRINGS : new String[namespaceCount];
+        final String[] namespaceURIs = namespaceCount == 0 ? NO_STRINGS : new String[namespaceCount];
+        for (int i = 0; i < namespaceCount; i++) {
+            namespacePrefixes[i] = nonNull(reader.getNamespacePrefix(i));
+            namespaceURIs[i] = nonNull(reader.getNamespaceURI(i));
+        }
+        final int attributeCount = reader.getAttributeCount();
+        final QName[] attributeNames = attributeCount == 0 ? NO_QNAMES : new QName[attributeCount];
+        final String[] attributeValues = attributeCount == 0 ? NO_STRINGS : new String[attributeCount];
+        final String[] attributeTypes = attributeCount == 0 ? NO_STRINGS : new String[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            attributeNames[i] = reader.getAttributeName(i);
+            attributeValues[i] = reader.getAttributeValue(i);
+            attributeTypes[i] = reader.getAttributeType(i);
+        }
+        return new ElementRecord(reader.getName(), namespacePrefixes, namespaceURIs, attributeNames,
+                attributeValues, attributeTypes);
+    }
+
+    private static ElementRecord toElementRecord(final StartElement startElement) {
+        final List<String> namespacePrefixes = new ArrayList<String>();
+        final List<String> namespaceURIs = new ArrayList<String>();
+        for (final Iterator<?> it = startElement.getNamespaces(); it.hasNext();) {
+            final Namespace namespace = (Namespace) it.next();
+            namespacePrefixes.add(nonNull(namespace.getPrefix()));
+            namespaceURIs.add(nonNull(namespace.getNamespaceURI()));
+        }
+        final List<QName> attributeNames = new ArrayList<QName>();
+        final List<String> attributeValues = new ArrayList<String>();
+        final List<String> attributeTypes = new ArrayList<String>();
+        for (final Iterator<?> it = startElement.getAttributes(); it.hasNext();) {
+            final Attribute attribute = (Attribute) it.next();
+            attributeNames.add(attribute.getName());
+            attributeValues.add(attribute.getValue());
+            attributeTypes.add(attribute.getDTDType());
+        }
+        return new ElementRecord(startElement.getName(), namespacePrefixes.toArray(NO_STRINGS),
+                namespaceURIs.toArray(NO_STRINGS), attributeNames.toArray(NO_QNAMES),
+                attributeValues.toArray(NO_STRINGS), attributeTypes.toArray(NO_STRINGS));
+    }
+
+    private static String nonNull(final String value) {
+        return value == null ? XMLConstants.NULL_NS_URI : value;
+    }
+
+    /**
+     * A {@link XMLStreamReader} replaying the events of the buffer
+     */
+    private final class Replayer implements XMLStreamReader, NamespaceContext {
+
+        private int index = 0;
+
+        // the elements opened before the current event, used to resolve the in-scope namespaces
+        private final List<ElementRecord> openElements = new ArrayList<ElementRecord>();
+
+        XMLStreamEventBuffer getBuffer() {
+            return XMLStreamEventBuffer.this;
+        }
+
+        @Override
+        public Object getProperty(final String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("The property name can not be null");
+            }
+            return null;
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException("There is no more recorded event");
+            }
+            final int currentType = types[this.index];
+            if (currentType == START_ELEMENT) {
+                this.openElements.add((ElementRecord) payloads[this.index]);
+            } else if (currentType == END_ELEMENT) {
+                this.openElements.remove(this.openElements.size() - 1);
+            }
+            this.index++;
+            return types[this.index];
+        }
+
+        @Override
+        public void require(final int type, final String namespaceURI, final String localName)
+                throws XMLStreamException {
+            if (type != this.getEventType()) {
+                throw new XMLStreamException("Expected event type " + type + " but was " + this.getEventType());
+            }
+            if (namespaceURI != null && !namespaceURI.equals(this.getNamespaceURI())) {
+                throw new XMLStreamException("Expected namespace " + namespaceURI + " but was "
+                        + this.getNamespaceURI());
+            }
+            if (localName != null && !localName.equals(this.getLocalName())) {
+                throw new XMLStreamException("Expected local name " + localName + " but was "
+                        + this.getLocalName());
+            }
+        }
+
+        @Override
+        public String getElementText() throws XMLStreamException {
+            if (this.getEventType() != START_ELEMENT) {
+                throw new XMLStreamException("The current event is not a START_ELEMENT");
+            }
+            final StringBuilder sb = new StringBuilder();
+            int eventType = this.next();
+            while (eventType != END_ELEMENT) {
+                if (eventType == CHARACTERS || eventType == CDATA || eventType == SPACE
+                        || eventType == ENTITY_REFERENCE) {
+                    sb.append(this.getText());
+                } else if (eventType != PROCESSING_INSTRUCTION && eventType != COMMENT) {
+                    throw new XMLStreamException("Unexpected event type " + eventType + " in text-only element");
+                }
+                eventType = this.next();
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            int eventType = this.next();
+            while ((eventType == CHARACTERS && this.isWhiteSpace()) || (eventType == CDATA && this.isWhiteSpace())
+                    || eventType == SPACE || eventType == PROCESSING_INSTRUCTION || eventType == COMMENT) {
+                eventType = this.next();
+            }
+            if (eventType != START_ELEMENT && eventType != END_ELEMENT) {
+                throw new XMLStreamException("Expected a START_ELEMENT or END_ELEMENT but was " + eventType);
+            }
+            return eventType;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.index < size - 1;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getNamespaceURI(final String prefix) {
+            if (prefix == null) {
+                throw new IllegalArgumentException("The prefix can not be null");
+            }
+            if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                return XMLConstants.XML_NS_URI;
+            }
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+                return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+            }
+            final ElementRecord current = this.currentElement();
+            if (current != null) {
+                final String namespaceURI = lookupNamespaceURI(current, prefix);
+                if (namespaceURI != null) {
+                    return namespaceURI;
+                }
+            }
+            for (int i = this.openElements.size() - 1; i >= 0; i--) {
+                final String namespaceURI = lookupNamespaceURI(this.openElements.get(i), prefix);
+                if (namespaceURI != null) {
+                    return namespaceURI;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String getPrefix(final String namespaceURI) {
+            final Iterator<String> prefixes = this.getPrefixes(namespaceURI);
+            return prefixes.hasNext() ? prefixes.next() : null;
+        }
+
+        @Override
+        public Iterator<String> getPrefixes(final String namespaceURI) {
+            if (namespaceURI == null) {
+                throw new IllegalArgumentException("The namespace URI can not be null");
+            }
+            final List<String> prefixes = new ArrayList<String>();
+            final List<ElementRecord> scope = new ArrayList<ElementRecord>(this.openElements);
+            final ElementRecord current = this.currentElement();
+            if (current != null) {
+                scope.add(current);
+            }
+            for (int i = scope.size() - 1; i >= 0; i--) {
+                final ElementRecord element = scope.get(i);
+                for (int j = 0; j < element.namespacePrefixes.length; j++) {
+                    final String prefix = element.namespacePrefixes[j];
+                    if (namespaceURI.equals(element.namespaceURIs[j]) && !prefixes.contains(prefix)
+                            && namespaceURI.equals(this.getNamespaceURI(prefix))) {
+                        prefixes.add(prefix);
+                    }
+                }
+            }
+            return Collections.unmodifiableList(prefixes).iterator();
+        }
+
+        @Override
+        public boolean isStartElement() {
+            return this.getEventType() == START_ELEMENT;
+        }
+
+        @Override
+        public boolean isEndElement() {
+            return this.getEventType() == END_ELEMENT;
+        }
+
+        @Override
+        public boolean isCharacters() {
+            return this.getEventType() == CHARACTERS;
+        }
+
+        @Override
+        public boolean isWhiteSpace() {
+            final int eventType = this.getEventType();
+            if (eventType == SPACE) {
+                return true;
+            }
+            if (eventType != CHARACTERS && eventType != CDATA) {
+                return false;
+            }
+            final String text = (String) payloads[this.index];
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String getAttributeValue(final String namespaceURI, final String localName) {
+            final ElementRecord element = this.requireStartElement();
+            for (int i = 0; i < element.attributeNames.length; i++) {
+                final QName name = element.attributeNames[i];
+                if (name.getLocalPart().equals(localName)
+                        && (namespaceURI == null || namespaceURI.equals(name.getNamespaceURI()))) {
+                    return element.attributeValues[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int getAttributeCount() {
+            return this.requireStartElement().attributeNames.length;
+        }
+
+        @Override
+        public QName getAttributeName(final int index) {
+            return this.requireStartElement().attributeNames[index];
+        }
+
+        @Override
+        public String getAttributeNamespace(final int index) {
+            final String namespaceURI = this.getAttributeName(index).getNamespaceURI();
+            return namespaceURI.isEmpty() ? null : namespaceURI;
+        }
+
+        @Override
+        public String getAttributeLocalName(final int index) {
+            return this.getAttributeName(index).getLocalPart();
+        }
+
+        @Override
+        public String getAttributePrefix(final int index) {
+            final String prefix = this.getAttributeName(index).getPrefix();
+            return prefix.isEmpty() ? null : prefix;
+        }
+
+        @Override
+        public String getAttributeType(final int index) {
+            final String type = this.requireStartElement().attributeTypes[index];
+            return type == null ? "CDATA" : type;
+        }
+
+        @Override
+        public String getAttributeValue(final int index) {
+            return this.requireStartElement().attributeValues[index];
+        }
+
+        @Override
+        public boolean isAttributeSpecified(final int index) {
+            this.getAttributeName(index);
+            return true;
+        }
+
+        @Override
+        public int getNamespaceCount() {
+            return this.requireElement().namespacePrefixes.length;
+        }
+
+        @Override
+        public String getNamespacePrefix(final int index) {
+            final String prefix = this.requireElement().namespacePrefixes[index];
+            return prefix.isEmpty() ? null : prefix;
+        }
+
+        @Override
+        public String getNamespaceURI(final int index) {
+            return this.requireElement().namespaceURIs[index];
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return this;
+        }
+
+        @Override
+        public int getEventType() {
+            return types[this.index];
+        }
+
+        @Override
+        public String getText() {
+            switch (this.getEventType()) {
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                case COMMENT:
+                case DTD:
+                    return (String) payloads[this.index];
+                case ENTITY_REFERENCE:
+                    return ((String[]) payloads[this.index])[1];
+                default:
+                    throw new IllegalStateException("The current event has no text: " + this.getEventType());
+            }
+        }
+
+        @Override
+        public char[] getTextCharacters() {
+            return this.getText().toCharArray();
+        }
+
+        @Override
+        public int getTextCharacters(final int sourceStart, final char[] target, final int targetStart,
+                final int length) throws XMLStreamException {
+            final String text = this.getText();
+            final int copied = Math.max(0, Math.min(length, text.length() - sourceStart));
+            text.getChars(sourceStart, sourceStart + copied, target, targetStart);
+            return copied;
+        }
+
+        @Override
+        public int getTextStart() {
+            return 0;
+        }
+
+        @Override
+        public int getTextLength() {
+            return this.getText().length();
+        }
+
+        @Override
+        public String getEncoding() {
+            return encoding;
+        }
+
+        @Override
+        public boolean hasText() {
+            final int eventType = this.getEventType();
+            return eventType == CHARACTERS || eventType == CDATA || eventType == SPACE || eventType == COMMENT
+                    || eventType == DTD || eventType == ENTITY_REFERENCE;
+        }
+
+        @Override
+        public Location getLocation() {
+            return new Location() {
+
+                @Override
+                public int getLineNumber() {
+                    return -1;
+                }
+
+                @Override
+                public int getColumnNumber() {
+                    return -1;
+                }
+
+                @Override
+                public int getCharacterOffset() {
+                    return -1;
+                }
+
+                @Override
+                public String getPublicId() {
+                    return null;
+                }
+
+                @Override
+                public String getSystemId() {
+                    return systemId;
+                }
+            };
+        }
+
+        @Override
+        public QName getName() {
+            return this.requireElement().name;
+        }
+
+        @Override
+        public String getLocalName() {
+            if (this.getEventType() == ENTITY_REFERENCE) {
+                return ((String[]) payloads[this.index])[0];
+            }
+            return this.getName().getLocalPart();
+        }
+
+        @Override
+        public boolean hasName() {
+            return this.getEventType() == START_ELEMENT || this.getEventType() == END_ELEMENT;
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            if (!this.hasName()) {
+                return null;
+            }
+            final String namespaceURI = this.getName().getNamespaceURI();
+            return namespaceURI.isEmpty() ? null : namespaceURI;
+        }
+
+        @Override
+        public String getPrefix() {
+            if (!this.hasName()) {
+                return null;
+            }
+            return this.getName().getPrefix();
+        }
+
+        @Override
+        public String getVersion() {
+            return version;
+        }
+
+        @Override
+        public boolean isStandalone() {
+            return standalone;
+        }
+
+        @Override
+        public boolean standaloneSet() {
+            return standaloneSet;
+        }
+
+        @Override
+        public String getCharacterEncodingScheme() {
+            return characterEncodingScheme;
+        }
+
+        @Override
+        public String getPITarget() {
+            return this.getEventType() == PROCESSING_INSTRUCTION ? ((String[]) payloads[this.index])[0] : null;
+        }
+
+        @Override
+        public String getPIData() {
+            return this.getEventType() == PROCESSING_INSTRUCTION ? ((String[]) payloads[this.index])[1] : null;
+        }
+
+        private ElementRecord currentElement() {
+            return this.getEventType() == START_ELEMENT ? (ElementRecord) payloads[this.index] : null;
+        }
+
+        private ElementRecord requireStartElement() {
+            if (this.getEventType() != START_ELEMENT) {
+                throw new IllegalStateException("The current event is not a START_ELEMENT: " + this.getEventType());
+            }
+            return (ElementRecord) payloads[this.index];
+        }
+
+        private ElementRecord requireElement() {
+            if (!this.hasName()) {
+                throw new IllegalStateException(
+                        "The current event is not a START_ELEMENT or an END_ELEMENT: " + this.getEventType());
+            }
+            return (ElementRecord) payloads[this.index];
+        }
+    }
+
+    private static String lookupNamespaceURI(final ElementRecord element, final String prefix) {
+        for (int i = element.namespacePrefixes.length - 1; i >= 0; i--) {
+            if (prefix.equals(element.namespacePrefixes[i])) {
+                return element.namespaceURIs[i];
+            }
+        }
+        return null;
+    }
+}
@@ -43,12 +43,18 @@ public class URIMultipleResolvers implements URIResolver {
 		Source res = null;
 		for(URIResolver resolver: this.resolvers) {
 			try {
-				synchronized(resolver) {
+				if(isThreadSafe(resolver)) {
 					res = resolver.resolve(href, base);
-					if(res != null) {
-						break;
+				} else {
+					// the other resolvers may not be thread safe. Their monitor serializes their calls
+					// by all the instances sharing them and by the code synchronizing on them.
+					synchronized(resolver) {
+						res = resolver.resolve(href, base);
 					}
 				}
+				if(res != null) {
+					break;
+				}
 			} catch(TransformerException e) {
 				// do nothing
 			}
@@ -58,6 +64,13 @@ public class URIMultipleResolvers implements URIResolver {
 		return res;
 	}
 
+	/**
+	 * @return true if the resolver is one of the stateless resolvers of this package
+	 */
+	private static boolean isThreadSafe(URIResolver resolver) {
+		return resolver.getClass() == DefaultURIResolver.class || resolver.getClass() == ClasspathURIResolver.class;
+	}
+
 	public URIResolver[] getURIResolvers() {
 		return this.resolvers.toArray(new URIResolver[this.resolvers.size()]);
 	}
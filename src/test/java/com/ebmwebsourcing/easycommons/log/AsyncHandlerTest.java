@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2007-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+import com.ebmwebsourcing.easycommons.log.AsyncHandler.OverflowPolicy;
+
+public class AsyncHandlerTest {
+
+    private static class BlockingRecordingHandler extends Handler {
+
+        private final List<LogRecord> records = new ArrayList<LogRecord>();
+
+        private final CountDownLatch unblocked;
+
+        public BlockingRecordingHandler(CountDownLatch unblocked) {
+            this.unblocked = unblocked;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                this.unblocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                this.records.add(record);
+            }
+        }
+
+        public synchronized List<LogRecord> getRecords() {
+            return new ArrayList<LogRecord>(this.records);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRecordsPublishedInOrder() {
+        BlockingRecordingHandler target = new BlockingRecordingHandler(new CountDownLatch(0));
+        AsyncHandler asyncHandler = new AsyncHandler(16, OverflowPolicy.BLOCK, 1, target);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                asyncHandler.publish(new LogRecord(Level.INFO, "message" + i));
+            }
+            asyncHandler.flush();
+
+            List<LogRecord> records = target.getRecords();
+            assertEquals(1000, records.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("message" + i, records.get(i).getMessage());
+            }
+            assertEquals(0, asyncHandler.getDroppedCount());
+            assertEquals(1000, asyncHandler.getPublishedCount());
+        } finally {
+            asyncHandler.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testDropWhenFull() {
+        CountDownLatch unblocked = new CountDownLatch(1);
+        BlockingRecordingHandler target = new BlockingRecordingHandler(unblocked);
+        AsyncHandler asyncHandler = new AsyncHandler(10, OverflowPolicy.DROP, 1, target);
+        try {
+            for (int i = 0; i < 100; i++) {
+                asyncHandler.publish(new LogRecord(Level.INFO, "message" + i));
+            }
+            // at most the buffer and the batch being published by the background thread are kept
+            assertTrue(asyncHandler.getDroppedCount() >= 100 - 10 - 10);
+
+            unblocked.countDown();
+            asyncHandler.flush();
+            assertEquals(100 - asyncHandler.getDroppedCount(), target.getRecords().size());
+        } finally {
+            unblocked.countDown();
+            asyncHandler.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testLoggingUtilWithAsyncHandler() {
+        Logger logger = Logger.getLogger(AsyncHandlerTest.class.getName());
+        logger.setLevel(Level.INFO);
+        BlockingRecordingHandler target = new BlockingRecordingHandler(new CountDownLatch(0));
+        AsyncHandler asyncHandler = new AsyncHandler(target);
+        try {
+            LoggingUtil log = new LoggingUtil(logger, "comp", asyncHandler);
+            log.debug("not logged");
+            log.info("value {0}", 1);
+            asyncHandler.flush();
+
+            List<LogRecord> records = target.getRecords();
+            assertEquals(1, records.size());
+            assertEquals("[comp] value {0}", records.get(0).getMessage());
+            assertEquals(AsyncHandlerTest.class.getName(), records.get(0).getLoggerName());
+        } finally {
+            asyncHandler.close();
+            logger.setLevel(null);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testTargetErrorDoesNotStopPublishing() {
+        BlockingRecordingHandler target = new BlockingRecordingHandler(new CountDownLatch(0)) {
+            @Override
+            public void publish(LogRecord record) {
+                if ("error".equals(record.getMessage())) {
+                    throw new AssertionError(record.getMessage());
+                }
+                super.publish(record);
+            }
+        };
+        AsyncHandler asyncHandler = new AsyncHandler(4, OverflowPolicy.BLOCK, 1, target);
+        final AtomicInteger errors = new AtomicInteger();
+        asyncHandler.setErrorManager(new ErrorManager() {
+            @Override
+            public void error(String msg, Exception ex, int code) {
+                errors.incrementAndGet();
+            }
+        });
+        try {
+            asyncHandler.publish(new LogRecord(Level.INFO, "error"));
+            asyncHandler.flush();
+            // more records than the buffer capacity
+            for (int i = 0; i < 100; i++) {
+                asyncHandler.publish(new LogRecord(Level.INFO, "message" + i));
+            }
+            asyncHandler.flush();
+
+            assertEquals(1, errors.get());
+            assertEquals(100, target.getRecords().size());
+        } finally {
+            asyncHandler.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testTargetErrorsDoNotStopTheBatch() {
+        CountDownLatch unblocked = new CountDownLatch(1);
+        BlockingRecordingHandler failing = new BlockingRecordingHandler(unblocked) {
+            @Override
+            public void publish(LogRecord record) {
+                super.publish(record);
+                if ("error".equals(record.getMessage())) {
+                    throw new StackOverflowError(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+                throw new OutOfMemoryError("flush");
+            }
+        };
+        BlockingRecordingHandler target = new BlockingRecordingHandler(new CountDownLatch(0));
+        AsyncHandler asyncHandler = new AsyncHandler(16, OverflowPolicy.BLOCK, 1, failing, target);
+        final List<String> errors = new ArrayList<String>();
+        asyncHandler.setErrorManager(new ErrorManager() {
+            @Override
+            public synchronized void error(String msg, Exception ex, int code) {
+                errors.add(ex.getCause().getMessage());
+            }
+        });
+        try {
+            // the first record blocks the background thread, the next ones are published in one batch
+            asyncHandler.publish(new LogRecord(Level.INFO, "first"));
+            asyncHandler.publish(new LogRecord(Level.INFO, "error"));
+            asyncHandler.publish(new LogRecord(Level.INFO, "last"));
+            unblocked.countDown();
+            asyncHandler.flush();
+
+            assertEquals(3, failing.getRecords().size());
+            assertEquals(3, target.getRecords().size());
+            assertEquals(3, asyncHandler.getPublishedCount());
+            assertEquals(0, asyncHandler.getDroppedCount());
+            synchronized (asyncHandler.getErrorManager()) {
+                assertTrue(errors.contains("error"));
+                assertTrue(errors.contains("flush"));
+            }
+        } finally {
+            unblocked.countDown();
+            asyncHandler.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRecordsAfterCloseCountedAsDropped() {
+        BlockingRecordingHandler target = new BlockingRecordingHandler(new CountDownLatch(0));
+        AsyncHandler asyncHandler = new AsyncHandler(target);
+        asyncHandler.publish(new LogRecord(Level.INFO, "message"));
+        asyncHandler.close();
+        asyncHandler.publish(new LogRecord(Level.INFO, "after close"));
+
+        assertEquals(1, target.getRecords().size());
+        assertEquals(1, asyncHandler.getDroppedCount());
+    }
+}
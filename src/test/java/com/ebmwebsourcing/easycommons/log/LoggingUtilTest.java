@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggingUtilTest {
+
+    private static class RecordingHandler extends Handler {
+
+        private final List<LogRecord> records = new ArrayList<LogRecord>();
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            this.records.add(record);
+        }
+
+        public synchronized List<LogRecord> getRecords() {
+            return new ArrayList<LogRecord>(this.records);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private Logger logger;
+
+    private RecordingHandler handler;
+
+    @Before
+    public void setUp() {
+        this.logger = Logger.getLogger(LoggingUtilTest.class.getName());
+        this.logger.setUseParentHandlers(false);
+        this.handler = new RecordingHandler();
+        this.handler.setLevel(Level.ALL);
+        this.logger.addHandler(this.handler);
+        this.logger.setLevel(Level.ALL);
+    }
+
+    @After
+    public void tearDown() {
+        this.logger.removeHandler(this.handler);
+        this.logger.setLevel(null);
+    }
+
+    @Test
+    public void testCallerClassAndMethod() {
+        LoggingUtil log = new LoggingUtil(this.logger, "comp");
+        log.info("message");
+        log.start();
+        log.end("done");
+
+        List<LogRecord> records = this.handler.getRecords();
+        assertEquals(3, records.size());
+        assertEquals("[comp] LoggingUtilTest.testCallerClassAndMethod() message", records.get(0).getMessage());
+        assertEquals("[comp] -START-LoggingUtilTest.testCallerClassAndMethod()", records.get(1).getMessage());
+        assertEquals("[comp] -END-LoggingUtilTest.testCallerClassAndMethod() done", records.get(2).getMessage());
+    }
+
+    @Test
+    public void testNoCallerBelowFiner() {
+        this.logger.setLevel(Level.FINE);
+        LoggingUtil log = new LoggingUtil(this.logger);
+        log.debug("message");
+
+        List<LogRecord> records = this.handler.getRecords();
+        assertEquals(1, records.size());
+        assertEquals("message", records.get(0).getMessage());
+    }
+
+    @Test
+    public void testSupplierNotCalledWhenDisabled() {
+        this.logger.setLevel(Level.INFO);
+        LoggingUtil log = new LoggingUtil(this.logger);
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<String> message = () -> "message" + calls.incrementAndGet();
+
+        log.debug(message);
+        assertEquals(0, calls.get());
+        assertEquals(0, this.handler.getRecords().size());
+
+        log.warning(message);
+        assertEquals(1, calls.get());
+        assertEquals("message1", this.handler.getRecords().get(0).getMessage());
+    }
+
+    @Test
+    public void testParameterizedMessage() {
+        this.logger.setLevel(Level.INFO);
+        LoggingUtil log = new LoggingUtil(this.logger, "comp");
+        Exception e = new Exception();
+
+        log.debug("not {0}", "logged");
+        log.info("value {0} for {1}", 1, "key");
+        log.error("failure {0}", "key", e);
+
+        List<LogRecord> records = this.handler.getRecords();
+        assertEquals(2, records.size());
+        assertEquals("[comp] value 1 for key", new SimpleFormatter().formatMessage(records.get(0)));
+        assertEquals("[comp] failure key", new SimpleFormatter().formatMessage(records.get(1)));
+        assertSame(e, records.get(1).getThrown());
+        assertEquals(LoggingUtilTest.class.getName(), records.get(1).getLoggerName());
+    }
+
+    @Test
+    public void testRateLimitedCallSite() {
+        this.logger.setLevel(Level.INFO);
+        LoggingUtil log = new LoggingUtil(this.logger);
+        LogRateLimiter limiter = new LogRateLimiter(1, TimeUnit.HOURS, 5, 10);
+        log.setRateLimiter(limiter);
+        Exception e = new Exception();
+
+        for (int i = 0; i < 100; i++) {
+            log.error("failure", e);
+        }
+        // another call site is limited separately
+        log.error("other failure", e);
+
+        List<LogRecord> records = this.handler.getRecords();
+        // the first 5, then 1 out of 10
+        assertEquals(5 + 9 + 1, records.size());
+        assertEquals("failure", records.get(4).getMessage());
+        assertEquals("failure (9 similar messages suppressed)", records.get(5).getMessage());
+        assertSame(e, records.get(5).getThrown());
+        assertEquals("other failure", records.get(14).getMessage());
+        assertEquals(100 - 5 - 9, limiter.getSuppressedCount());
+    }
+
+    @Test
+    public void testInterleavedRateLimitedCallSites() {
+        this.logger.setLevel(Level.FINER);
+        LoggingUtil log = new LoggingUtil(this.logger);
+        LogRateLimiter limiter = new LogRateLimiter(1, TimeUnit.HOURS, 2, 0);
+        log.setRateLimiter(limiter);
+
+        // both call sites are looked up with the same key of the thread
+        for (int i = 0; i < 10; i++) {
+            log.warning("first");
+            log.warning("second");
+        }
+
+        List<LogRecord> records = this.handler.getRecords();
+        assertEquals(4, records.size());
+        for (LogRecord record : records) {
+            assertTrue(record.getMessage(),
+                    record.getMessage().contains("LoggingUtilTest.testInterleavedRateLimitedCallSites()"));
+        }
+        assertTrue(records.get(2).getMessage().endsWith(" first"));
+        assertTrue(records.get(3).getMessage().endsWith(" second"));
+        assertEquals(2 * (10 - 2), limiter.getSuppressedCount());
+    }
+
+    @Test
+    public void testSpanRecordsLatency() throws InterruptedException {
+        this.logger.setLevel(Level.INFO);
+        LoggingUtil log = new LoggingUtil(this.logger);
+        String method = LoggingUtilTest.class.getName() + ".testSpanRecordsLatency";
+
+        for (int i = 0; i < 3; i++) {
+            LoggingUtil.Span span = log.startSpan();
+            Thread.sleep(1);
+            log.end(span);
+        }
+
+        LatencyHistogram.Snapshot snapshot = LoggingUtil.getLatencySnapshots().get(method);
+        assertEquals(3, snapshot.getCount());
+        assertTrue(snapshot.getValueAtPercentile(50) >= 1000000);
+        // no trace below FINEST
+        assertEquals(0, this.handler.getRecords().size());
+    }
+}
@@ -15,10 +15,29 @@
  */
 package com.ebmwebsourcing.easycommons.pooling;
 
+import java.io.IOException;
 import java.lang.Thread.State;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -41,7 +60,7 @@ public class GenericResourcePoolTest {
         }
 
         @Override
-        public String create() {
+        public synchronized String create() {
             this.count++;
             return new String("test" + this.count);
         }
@@ -307,4 +326,408 @@ public class GenericResourcePoolTest {
         assertTrue(ressourceHandler.isOnTake());
         assertTrue(ressourceHandler.isOnRelease());
     }
+
+    @Test
+    public void testFlightRecorderEvents() throws IOException {
+        Path file = Files.createTempFile("pool", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.ebmwebsourcing.easycommons.PoolCreate");
+            recording.enable("com.ebmwebsourcing.easycommons.PoolTake").withThreshold(Duration.ZERO);
+            recording.start();
+
+            GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 1, 1,
+                    PoolPolicy.REJECT);
+            String str = pool.take();
+            try {
+                pool.take();
+                fail("The pool must reject the second take");
+            } catch (PoolException e) {
+                // expected
+            }
+            pool.release(str);
+
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            int creates = 0;
+            int rejects = 0;
+            for (RecordedEvent event : events) {
+                assertEquals(StringResourceHandler.class.getName(), event.getString("resourceHandler"));
+                if (event.getEventType().getName().endsWith("PoolCreate")) {
+                    creates++;
+                } else if (event.getBoolean("rejected")) {
+                    rejects++;
+                }
+            }
+            assertEquals(1, creates);
+            assertEquals(1, rejects);
+            assertEquals(3, events.size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLongHeldResourceReported() throws InterruptedException {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 2,
+                PoolPolicy.WAIT);
+        pool.enableLeakDetection(10, TimeUnit.MILLISECONDS, 1);
+
+        String held = pool.take();
+        String released = pool.take();
+        pool.release(released);
+        Thread.sleep(50);
+
+        assertEquals(1, pool.checkLeaks().size());
+        pool.release(held);
+        assertEquals(0, pool.checkLeaks().size());
+    }
+
+    @Test(timeout = 30000)
+    public void testLeakedResourceReclaimed() {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 1,
+                PoolPolicy.WAIT);
+        pool.enableLeakDetection(1, TimeUnit.MINUTES, 1);
+
+        this.takeWithoutRelease(pool);
+
+        // waits until the leaked resource is garbage collected and its permit reclaimed
+        Thread gc = new Thread() {
+            @Override
+            public void run() {
+                while (!this.isInterrupted()) {
+                    System.gc();
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        gc.start();
+        try {
+            String str = pool.take();
+            assertNotNull(str);
+            pool.release(str);
+        } finally {
+            gc.interrupt();
+        }
+    }
+
+    private void takeWithoutRelease(GenericResourcePool<String> pool) {
+        assertNotNull(pool.take());
+    }
+
+    @Test
+    public void testLeaseReleasedWhenClosed() {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 1,
+                PoolPolicy.REJECT);
+
+        Lease<String> first;
+        try (Lease<String> lease = pool.lease()) {
+            first = lease;
+            assertEquals("test1", lease.get());
+        }
+        try {
+            first.get();
+            fail("A closed lease must not give its resource");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try (Lease<String> lease = pool.lease()) {
+            // the resource is reused
+            assertEquals("test1", lease.get());
+            // closing the closed lease does not release the resource of the new one
+            first.close();
+            assertEquals("test1", lease.get());
+            try (Lease<String> nested = pool.lease()) {
+                fail("The pool must reject a second lease");
+            } catch (PoolException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testLeaseClosedOnceByConcurrentThreads() throws Exception {
+        final GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0,
+                1, PoolPolicy.REJECT);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 100; i++) {
+                final Lease<String> lease = pool.lease();
+                final CountDownLatch start = new CountDownLatch(1);
+                List<CompletableFuture<Void>> closes = new ArrayList<CompletableFuture<Void>>();
+                for (int j = 0; j < 4; j++) {
+                    closes.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            throw new CompletionException(e);
+                        }
+                        lease.close();
+                    }, executor));
+                }
+                start.countDown();
+                for (CompletableFuture<Void> close : closes) {
+                    // a second release of the resource would fail
+                    close.get();
+                }
+                assertEquals(0, pool.getInUseCount());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testAdaptiveSizingGrowsWhenWaiting() {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 2,
+                PoolPolicy.WAIT);
+        pool.setAdaptiveSizing(new AdaptiveSizing(0, 4, 2, 3, 1, 10, TimeUnit.MILLISECONDS));
+
+        pool.take();
+        pool.take();
+        // all the resources are used, the pool grows during the wait
+        assertNotNull(pool.take());
+        assertEquals(3, pool.getMaxSize());
+        assertEquals(3, pool.getInUseCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testAdaptiveSizingDropsIdleResources() throws InterruptedException {
+        StringResourceHandler handler = new StringResourceHandler();
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(handler, 10, 20, PoolPolicy.WAIT);
+        pool.setAdaptiveSizing(new AdaptiveSizing(1, 2, 5, 20, 1, 10, TimeUnit.MILLISECONDS));
+        assertEquals(10, pool.getIdleCount());
+
+        Thread.sleep(20);
+        pool.release(pool.take());
+        // the use is low: the pool shrinks and keeps at most 2 idle resources
+        assertTrue(pool.getIdleCount() <= 2);
+        assertEquals(15, pool.getMaxSize());
+
+        // the idle resources are created in background
+        pool.setAdaptiveSizing(new AdaptiveSizing(4, 4, 5, 20, 1, 10, TimeUnit.MILLISECONDS));
+        while (pool.getIdleCount() < 4) {
+            Thread.sleep(1);
+        }
+        assertEquals(4, pool.getIdleCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testAdaptiveSizingKeepsBurstResourcesOfUnboundedPool() throws InterruptedException {
+        final AtomicInteger destroyed = new AtomicInteger();
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler() {
+            @Override
+            public void destroy(String resource) {
+                destroyed.incrementAndGet();
+            }
+        }, 1, Integer.MAX_VALUE, PoolPolicy.WAIT);
+        pool.setAdaptiveSizing(new AdaptiveSizing(1, 2, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 10,
+                TimeUnit.MILLISECONDS));
+
+        final int burst = 20;
+        for (int round = 0; round < 5; round++) {
+            List<String> taken = new ArrayList<String>();
+            for (int i = 0; i < burst; i++) {
+                taken.add(pool.take());
+            }
+            for (String resource : taken) {
+                pool.release(resource);
+            }
+            // the pool is adjusted between the bursts
+            Thread.sleep(15);
+        }
+        // the resources of the burst are not destroyed and created again
+        assertEquals(0, destroyed.get());
+    }
+
+    @Test(timeout = 30000)
+    public void testMinimumResourcesCreatedInParallel() {
+        final CountDownLatch allCreating = new CountDownLatch(4);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler() {
+                @Override
+                public String create() {
+                    allCreating.countDown();
+                    try {
+                        // only reached if the 4 resources are created at the same time
+                        assertTrue(allCreating.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new PoolException(e);
+                    }
+                    return "test";
+                }
+            }, 4, 10, PoolPolicy.WAIT, executor);
+            assertEquals(4, pool.getIdleCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPermitReleasedWhenCreationFails() {
+        final AtomicInteger creations = new AtomicInteger();
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler() {
+            @Override
+            public String create() {
+                if (creations.incrementAndGet() == 1) {
+                    throw new IllegalStateException("creation failure");
+                }
+                return "test";
+            }
+        }, 0, 1, PoolPolicy.REJECT);
+
+        try {
+            pool.take();
+            fail("The creation failure must be thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals("test", pool.take());
+        assertEquals(1, pool.getInUseCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testPrewarm() {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 3,
+                PoolPolicy.WAIT);
+        pool.take();
+
+        // limited by the maximum size
+        pool.prewarm(5).join();
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testTakeAsyncCompletedByReleaseInOrder() {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 1,
+                PoolPolicy.WAIT);
+        String resource = pool.take();
+
+        CompletableFuture<String> first = pool.takeAsync();
+        CompletableFuture<String> cancelled = pool.takeAsync();
+        CompletableFuture<String> last = pool.takeAsync();
+        assertFalse(first.isDone());
+
+        pool.release(resource);
+        assertEquals(resource, first.join());
+        assertFalse(last.isDone());
+
+        // a cancelled waiter is skipped
+        cancelled.cancel(false);
+        pool.release(first.join());
+        assertEquals(resource, last.join());
+        assertEquals(1, pool.getInUseCount());
+
+        pool.release(last.join());
+        assertEquals(0, pool.getInUseCount());
+        assertEquals(resource, pool.takeAsync().join());
+    }
+
+    @Test(timeout = 30000)
+    public void testTakeAsyncTimeout() {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 1,
+                PoolPolicy.WAIT);
+        String resource = pool.take();
+
+        CompletableFuture<String> future = pool.takeAsync(10, TimeUnit.MILLISECONDS);
+        try {
+            future.join();
+            fail("The take must time out");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof PoolException);
+        }
+
+        // the permit is not lost
+        pool.release(resource);
+        assertEquals(0, pool.getInUseCount());
+        assertEquals(resource, pool.takeAsync().join());
+    }
+
+    @Test
+    public void testTakeAsyncWithRejectPoolPolicy() {
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(new StringResourceHandler(), 0, 1,
+                PoolPolicy.REJECT);
+        pool.take();
+
+        CompletableFuture<String> future = pool.takeAsync();
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    private class ValidatedStringResourceHandler extends StringResourceHandler {
+
+        public final Set<String> invalid = Collections.synchronizedSet(new HashSet<String>());
+
+        public final List<String> destroyed = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onRelease(String resource) {
+            if (this.invalid.contains(resource)) {
+                throw new IllegalStateException("broken resource");
+            }
+        }
+
+        @Override
+        public boolean validate(String resource) {
+            return !this.invalid.contains(resource);
+        }
+
+        @Override
+        public void destroy(String resource) {
+            this.destroyed.add(resource);
+        }
+    }
+
+    @Test
+    public void testBrokenResourceDestroyedOnRelease() {
+        ValidatedStringResourceHandler handler = new ValidatedStringResourceHandler();
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(handler, 1, 1, PoolPolicy.REJECT);
+
+        String resource = pool.take();
+        handler.invalid.add(resource);
+        pool.release(resource);
+        assertEquals(Collections.singletonList(resource), handler.destroyed);
+
+        // the permit is not lost, a new resource is created
+        assertEquals("test2", pool.take());
+    }
+
+    @Test
+    public void testInvalidResourceNotTakenWithTestOnBorrow() {
+        ValidatedStringResourceHandler handler = new ValidatedStringResourceHandler();
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(handler, 1, 1, PoolPolicy.REJECT);
+        handler.invalid.add("test1");
+
+        pool.setTestOnBorrow(true);
+        assertEquals("test2", pool.take());
+        assertEquals(Collections.singletonList("test1"), handler.destroyed);
+    }
+
+    @Test(timeout = 30000)
+    public void testInvalidIdleResourcesDestroyed() throws InterruptedException {
+        ValidatedStringResourceHandler handler = new ValidatedStringResourceHandler();
+        GenericResourcePool<String> pool = new GenericResourcePool<String>(handler, 0, 3, PoolPolicy.WAIT);
+        String first = pool.take();
+        String second = pool.take();
+        String third = pool.take();
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        handler.invalid.add(third);
+
+        pool.setTestWhileIdlePeriod(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        // the period is over, the take starts the test of the other idle resources
+        assertEquals(first, pool.take());
+        while (handler.destroyed.isEmpty()) {
+            Thread.sleep(1);
+        }
+        assertEquals(Collections.singletonList(third), handler.destroyed);
+        assertEquals(1, pool.getIdleCount());
+    }
 }
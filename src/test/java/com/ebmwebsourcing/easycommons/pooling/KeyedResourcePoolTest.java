@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class KeyedResourcePoolTest {
+
+    private static class KeyResourceHandler implements ResourceHandler<String> {
+
+        private final String key;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final List<String> destroyed;
+
+        KeyResourceHandler(String key, List<String> destroyed) {
+            this.key = key;
+            this.destroyed = destroyed;
+        }
+
+        @Override
+        public String create() {
+            return this.key + this.count.incrementAndGet();
+        }
+
+        @Override
+        public void onTake(String resource) {
+        }
+
+        @Override
+        public void onRelease(String resource) {
+        }
+
+        @Override
+        public void destroy(String resource) {
+            this.destroyed.add(resource);
+        }
+    }
+
+    private final List<String> destroyed = Collections.synchronizedList(new ArrayList<String>());
+
+    private KeyedResourcePool<String, String> newPool(int maxSizePerKey, int maxSize, int maxKeys) {
+        return new KeyedResourcePool<String, String>(key -> new KeyResourceHandler(key, this.destroyed),
+                maxSizePerKey, maxSize, maxKeys, PoolPolicy.REJECT);
+    }
+
+    @Test
+    public void testResourcesByKey() {
+        KeyedResourcePool<String, String> pool = this.newPool(2, 10, 10);
+
+        String a = pool.take("a");
+        assertEquals("a1", a);
+        assertEquals("b1", pool.take("b"));
+        assertEquals("a2", pool.take("a"));
+        try {
+            pool.take("a");
+            fail("The maximum size of the key is reached");
+        } catch (PoolException e) {
+            // expected
+        }
+
+        pool.release("a", a);
+        assertEquals("a1", pool.take("a"));
+        assertEquals(2, pool.getKeyCount());
+        assertEquals(3, pool.getSize());
+    }
+
+    @Test
+    public void testIdleResourcesOfColdKeyEvictedAtGlobalMaximum() {
+        KeyedResourcePool<String, String> pool = this.newPool(2, 2, 10);
+
+        pool.release("a", pool.take("a"));
+        String b = pool.take("b");
+        // the resource of the least recently used key is destroyed to create this one
+        try (Lease<String> lease = pool.lease("c")) {
+            assertEquals("c1", lease.get());
+        }
+        assertEquals(Collections.singletonList("a1"), this.destroyed);
+        assertEquals(2, pool.getKeyCount());
+
+        // no idle resource left to destroy
+        String c = pool.take("c");
+        try {
+            pool.take("d");
+            fail("The global maximum size is reached");
+        } catch (PoolException e) {
+            // expected
+        }
+        pool.release("b", b);
+        pool.release("c", c);
+        assertEquals(2, pool.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedKeysForgotten() {
+        KeyedResourcePool<String, String> pool = this.newPool(2, 10, 2);
+
+        pool.release("a", pool.take("a"));
+        String b = pool.take("b");
+        pool.release("c", pool.take("c"));
+
+        // a is the coldest key without resource taken
+        assertEquals(2, pool.getKeyCount());
+        assertEquals(Collections.singletonList("a1"), this.destroyed);
+        assertEquals(2, pool.getSize());
+
+        // a new pool is created for a, b is now the coldest key
+        pool.release("b", b);
+        assertEquals("a1", pool.take("a"));
+        assertEquals(Arrays.asList("a1", "b1"), this.destroyed);
+    }
+
+    @Test(timeout = 30000)
+    public void testKeyOfLeakedResourceForgotten() throws InterruptedException {
+        KeyedResourcePool<String, String> pool = this.newPool(1, 10, 1);
+        pool.enableLeakDetection(1, TimeUnit.MINUTES, 1);
+
+        this.takeWithoutRelease(pool, "a");
+        // a is used by its leaked resource, so it is kept while b is used
+        pool.release("b", pool.take("b"));
+        assertEquals(2, pool.getKeyCount());
+
+        // once the leaked resource is garbage collected, a is forgotten
+        for (int i = 0; pool.getKeyCount() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            // a new key looks for the keys to forget
+            pool.release("c" + i, pool.take("c" + i));
+        }
+        assertEquals(1, pool.getKeyCount());
+    }
+
+    private void takeWithoutRelease(KeyedResourcePool<String, String> pool, String key) {
+        assertEquals(key + "1", pool.take(key));
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.pooling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ShardedResourcePoolTest {
+
+    private static class StringResourceHandler implements ResourceHandler<String> {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public String create() {
+            return "test" + this.count.incrementAndGet();
+        }
+
+        @Override
+        public void onTake(String resource) {
+        }
+
+        @Override
+        public void onRelease(String resource) {
+        }
+    }
+
+    private static int inUse(ShardedResourcePool<?> pool) {
+        int inUse = 0;
+        for (ShardedResourcePool.ShardMetrics metrics : pool.getShardMetrics()) {
+            inUse += metrics.getInUseCount();
+        }
+        return inUse;
+    }
+
+    @Test
+    public void testSizesSplitBetweenShards() {
+        ShardedResourcePool<String> pool = new ShardedResourcePool<String>(new StringResourceHandler(), 4, 4, 10,
+                PoolPolicy.WAIT);
+
+        List<ShardedResourcePool.ShardMetrics> metrics = pool.getShardMetrics();
+        assertEquals(4, metrics.size());
+        int maxSize = 0;
+        for (ShardedResourcePool.ShardMetrics shard : metrics) {
+            assertEquals(1, shard.getIdleCount());
+            maxSize += shard.getMaxSize();
+        }
+        assertEquals(10, maxSize);
+    }
+
+    @Test
+    public void testResourceStolenFromAnotherShard() {
+        ShardedResourcePool<String> pool = new ShardedResourcePool<String>(new StringResourceHandler(), 2, 0, 2,
+                PoolPolicy.REJECT);
+
+        String first = pool.take();
+        String second = pool.take();
+        try {
+            pool.take();
+            fail("All the shards are used");
+        } catch (PoolException e) {
+            // expected
+        }
+
+        long takes = 0;
+        long steals = 0;
+        for (ShardedResourcePool.ShardMetrics shard : pool.getShardMetrics()) {
+            takes += shard.getTakeCount();
+            steals += shard.getStealCount();
+        }
+        assertEquals(2, takes);
+        assertEquals(1, steals);
+
+        pool.release(second);
+        pool.release(first);
+        assertEquals(0, inUse(pool));
+    }
+
+    @Test(timeout = 30000)
+    public void testReleaseByAnotherThread() throws InterruptedException {
+        final ShardedResourcePool<String> pool = new ShardedResourcePool<String>(new StringResourceHandler(), 4, 0,
+                4, PoolPolicy.WAIT);
+        final String resource = pool.take();
+        try (Lease<String> lease = pool.lease()) {
+            assertNotNull(lease.get());
+            assertEquals(2, inUse(pool));
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.release(resource);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(0, inUse(pool));
+    }
+
+    @Test(timeout = 30000)
+    public void testWaitingTakeServedByAnyShard() throws Exception {
+        final ShardedResourcePool<String> pool = new ShardedResourcePool<String>(new StringResourceHandler(), 2, 0,
+                2, PoolPolicy.WAIT);
+        String first = pool.take();
+        pool.take();
+
+        CompletableFuture<String> waiting = CompletableFuture.supplyAsync(pool::take);
+        Thread.sleep(20);
+        assertTrue(!waiting.isDone());
+
+        pool.release(first);
+        assertEquals(first, waiting.get());
+    }
+
+    @Test(timeout = 30000)
+    public void testAsyncTakeServedByAnyShard() throws Exception {
+        // more shards than resources
+        ShardedResourcePool<String> pool = new ShardedResourcePool<String>(new StringResourceHandler(), 4, 0, 2,
+                PoolPolicy.WAIT);
+        assertEquals(2, pool.getShardCount());
+
+        for (int released = 0; released < 2; released++) {
+            List<String> resources = new ArrayList<String>();
+            resources.add(pool.take());
+            resources.add(pool.take());
+            CompletableFuture<String> future = pool.takeAsync();
+            assertFalse(future.isDone());
+            // whatever the shard of the released resource, the waiting take gets it
+            pool.release(resources.remove(released));
+            assertNotNull(future.get(1, TimeUnit.SECONDS));
+            pool.release(future.get());
+            pool.release(resources.get(0));
+        }
+        assertEquals(0, inUse(pool));
+    }
+
+    @Test(timeout = 30000)
+    public void testCancelledAsyncTakeGivenUp() throws Exception {
+        ShardedResourcePool<String> pool = new ShardedResourcePool<String>(new StringResourceHandler(), 1, 0, 1,
+                PoolPolicy.WAIT);
+
+        String resource = pool.take();
+        CompletableFuture<String> cancelled = pool.takeAsync();
+        assertTrue(cancelled.cancel(false));
+        CompletableFuture<String> timedOut = pool.takeAsync().orTimeout(1, TimeUnit.MILLISECONDS);
+        try {
+            timedOut.join();
+            fail("The take must time out");
+        } catch (Exception e) {
+            // expected
+        }
+        pool.release(resource);
+
+        assertEquals(0, inUse(pool));
+        assertEquals(resource, pool.takeAsync().get(1, TimeUnit.SECONDS));
+    }
+}
@@ -109,6 +109,35 @@ public class ResourceRegistryTest {
         }
     }
     
+    @Test
+    public void testConcurrentRegisteredAndUnregisteredWithDistinctKeys() throws InterruptedException {
+        for (int i = 0; i < loopCount; i++) {
+            ResourceRegistry<Object> resourceRegistry = new ResourceRegistry<Object>();
+
+            SimultaneousTaskExecutor simultaneousTaskExecutor = new SimultaneousTaskExecutor();
+            AtomicInteger counter = new AtomicInteger(0);
+            for (int j = 0; j < simultaneousThreads; j++) {
+                simultaneousTaskExecutor.registerTask(new ConcurrentRegisterTestTask(counter, resourceRegistry, KEY_TO_BIND + j));
+            }
+            simultaneousTaskExecutor.executeAllRegisteredTasks();
+            assertEquals("Failed during loop: " + i, -simultaneousThreads, counter.longValue());
+            for (int j = 0; j < simultaneousThreads; j++) {
+                assertNotNull(resourceRegistry.lookup(KEY_TO_BIND + j));
+            }
+
+            simultaneousTaskExecutor = new SimultaneousTaskExecutor();
+            counter.set(0);
+            for (int j = 0; j < simultaneousThreads; j++) {
+                simultaneousTaskExecutor.registerTask(new ConcurrentUnregisterTestTask(counter, resourceRegistry, KEY_TO_BIND + j));
+            }
+            simultaneousTaskExecutor.executeAllRegisteredTasks();
+            assertEquals("Failed during loop: " + i, -simultaneousThreads, counter.longValue());
+            for (int j = 0; j < simultaneousThreads; j++) {
+                assertNull(resourceRegistry.lookup(KEY_TO_BIND + j));
+            }
+        }
+    }
+
     @Test
     public void testConcurrentUnregisteredWithSameKey() throws InterruptedException {
         for (int i = 0; i < loopCount; i++) {
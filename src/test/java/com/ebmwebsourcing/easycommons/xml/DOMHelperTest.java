@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.transform.dom.DOMSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+public class DOMHelperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseMappedFile() throws IOException {
+        StringBuilder content = new StringBuilder("<batch xmlns=\"urn:batch\">");
+        for (int i = 0; i < 10000; i++) {
+            content.append("<record>").append(i).append("</record>");
+        }
+        content.append("</batch>");
+        File file = this.folder.newFile();
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        // big enough to be mapped
+        assertTrue(file.length() >= MappedInputStream.MIN_MAPPED_SIZE);
+
+        DOMSource source = DOMHelper.parseAsDOMSource(file);
+        Document document = (Document) source.getNode();
+        assertEquals("urn:batch", document.getDocumentElement().getNamespaceURI());
+        assertEquals(10000, document.getElementsByTagNameNS("urn:batch", "record").getLength());
+        assertEquals("9999", document.getDocumentElement().getLastChild().getTextContent());
+        assertEquals(file.toPath().toUri().toString(), source.getSystemId());
+    }
+}
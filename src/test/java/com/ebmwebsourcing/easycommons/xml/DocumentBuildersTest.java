@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.junit.Test;
+
+public class DocumentBuildersTest {
+
+    @Test(timeout = 30000)
+    public void testBurstDocumentBuildersNotDestroyed() {
+        // the pool of these features is not used by the other tests
+        final DocumentBuilderFeature[] features = { DocumentBuilderFeature.VALIDATING,
+                DocumentBuilderFeature.COALESCING };
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int burst = 4 * processors + 2;
+        Set<DocumentBuilder> created = Collections.newSetFromMap(new IdentityHashMap<DocumentBuilder, Boolean>());
+        for (int round = 0; round < 3; round++) {
+            List<DocumentBuilder> taken = new ArrayList<DocumentBuilder>();
+            for (int i = 0; i < burst; i++) {
+                taken.add(DocumentBuilders.takeDocumentBuilder(features));
+            }
+            created.addAll(taken);
+            for (DocumentBuilder documentBuilder : taken) {
+                DocumentBuilders.releaseDocumentBuilder(documentBuilder, features);
+            }
+        }
+        // the builders released after a burst are taken again instead of being created, only the initial one
+        // and the idle ones created in advance may be added
+        assertTrue(created.size() <= burst + 1 + 2 * processors);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class FileBackedOutputStreamTest {
+
+    private static byte[] newBytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testBelowThreshold() throws Exception {
+        byte[] bytes = newBytes(100);
+        FileBackedOutputStream os = new FileBackedOutputStream(100);
+        os.write(bytes);
+
+        assertFalse(os.isInFile());
+        assertEquals(100, os.size());
+        assertArrayEquals(bytes, readAll(os.toInputStream()));
+    }
+
+    @Test
+    public void testAboveThreshold() throws Exception {
+        byte[] bytes = newBytes(1000);
+        FileBackedOutputStream os = new FileBackedOutputStream(100);
+        os.write(bytes, 0, 50);
+        os.write(bytes[50]);
+        assertFalse(os.isInFile());
+        os.write(bytes, 51, 949);
+
+        assertTrue(os.isInFile());
+        assertEquals(1000, os.size());
+        assertArrayEquals(bytes, readAll(os.toInputStream()));
+    }
+
+    @Test
+    public void testAboveThresholdToByteArray() throws Exception {
+        byte[] bytes = newBytes(1000);
+        FileBackedOutputStream os = new FileBackedOutputStream(0);
+        os.write(bytes);
+
+        assertTrue(os.isInFile());
+        assertArrayEquals(bytes, os.toByteArray());
+        assertFalse(os.isInFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws Exception {
+        FileBackedOutputStream os = new FileBackedOutputStream(0);
+        os.close();
+        os.write(1);
+    }
+}
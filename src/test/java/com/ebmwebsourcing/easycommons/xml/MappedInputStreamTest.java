@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File newFile(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        File file = this.folder.newFile();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    @Test
+    public void testReadAcrossWindows() throws IOException {
+        File file = this.newFile(10000);
+        try (InputStream is = new MappedInputStream(file.toPath(), false, 1024)) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[700];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+            assertArrayEquals(Files.readAllBytes(file.toPath()), baos.toByteArray());
+        }
+    }
+
+    @Test
+    public void testSkipWindows() throws IOException {
+        File file = this.newFile(10000);
+        try (InputStream is = new MappedInputStream(file.toPath(), false, 1024)) {
+            assertEquals(10, is.skip(10));
+            assertEquals(10, is.read());
+            // to the middle of a later window
+            assertEquals(5000, is.skip(5000));
+            assertEquals((byte) 5011, (byte) is.read());
+            assertEquals(10000 - 5012, is.available());
+            assertEquals(10000 - 5012, is.skip(20000));
+            assertEquals(-1, is.read());
+        }
+    }
+
+    @Test
+    public void testTemporaryFileDeletedWhenClosed() throws IOException {
+        File file = this.newFile(10000);
+        InputStream is = new MappedInputStream(file.toPath(), true, 1024);
+        assertEquals(0, is.read());
+        is.close();
+        assertFalse(file.exists());
+        try {
+            is.read();
+            fail("A closed stream must not be read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
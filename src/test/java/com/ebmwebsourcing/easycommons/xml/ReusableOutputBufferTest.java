@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ReusableOutputBufferTest {
+
+    @Test
+    public void testBufferReusedOnceReleased() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ReusableOutputBuffer buffer = ReusableOutputBuffer.open(first);
+        buffer.write(new byte[] { 1, 2 });
+        buffer.close();
+        buffer.release();
+        assertArrayEquals(new byte[] { 1, 2 }, first.toByteArray());
+
+        ReusableOutputBuffer reused = ReusableOutputBuffer.open(new ByteArrayOutputStream());
+        assertSame(buffer, reused);
+        reused.release();
+    }
+
+    @Test
+    public void testBufferNeverReleasedNotReused() throws IOException {
+        // a writer never closed keeps its buffer
+        ReusableOutputBuffer leaked = ReusableOutputBuffer.open(new ByteArrayOutputStream());
+
+        ReusableOutputBuffer buffer = ReusableOutputBuffer.open(new ByteArrayOutputStream());
+        assertNotSame(leaked, buffer);
+        buffer.release();
+        // the next writers of the thread still reuse a buffer
+        ReusableOutputBuffer reused = ReusableOutputBuffer.open(new ByteArrayOutputStream());
+        assertSame(buffer, reused);
+        reused.release();
+    }
+}
@@ -16,13 +16,17 @@
 package com.ebmwebsourcing.easycommons.xml;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -43,6 +47,7 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import com.ebmwebsourcing.easycommons.io.IOHelper;
+import com.ebmwebsourcing.easycommons.stream.StreamHelper;
 
 /**
  * 
@@ -90,6 +95,88 @@ public class SourceHelperTest {
         }
     }
 
+    @Test
+    public void testSourceToDocument() throws Exception {
+        for (String xmlMessage : new String[] { "<toto></toto>",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><toto xmlns=\"urn:toto\"><titi/></toto>" }) {
+            for (Source source : newTestSources(xmlMessage)) {
+                Document document = SourceHelper.toDocument(source);
+                assertTrue(XMLComparator.isEquivalent(xmlMessage, XMLHelper.createStringFromDOMDocument(document)));
+                if (source instanceof DOMSource) {
+                    // the document of the source is copied, not shared with the caller
+                    Document sourceDocument = (Document) ((DOMSource) source).getNode();
+                    assertNotSame(sourceDocument, document);
+                    document.getDocumentElement().setAttribute("modified", "true");
+                    assertFalse(sourceDocument.getDocumentElement().hasAttribute("modified"));
+                }
+            }
+        }
+    }
+
+    @Test(expected = TransformerException.class)
+    public void testMalformedStreamSourceToDocument() throws Exception {
+        SourceHelper.toDocument(new StreamSource(new ByteArrayInputStream("<tot".getBytes())));
+    }
+
+    @Test
+    public void testEncodedStreamSourceToString() throws Exception {
+        String xmlMessage = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><toto>\u00e9t\u00e9</toto>";
+        byte[] bytes = xmlMessage.getBytes("ISO-8859-1");
+
+        // a String has no encoding
+        String expected = "<?xml version=\"1.0\"?><toto>\u00e9t\u00e9</toto>";
+
+        String sourceAsString = SourceHelper.toString(new StreamSource(new ByteArrayInputStream(bytes)));
+        assertEquals(expected, sourceAsString);
+
+        sourceAsString = SourceHelper.toString(new SAXSource(new InputSource(new ByteArrayInputStream(bytes))));
+        assertEquals(expected, sourceAsString);
+    }
+
+    @Test
+    public void testStreamSourceWithByteOrderMarkToString() throws Exception {
+        String xmlMessage = "<?xml version=\"1.0\" encoding=\"UTF-16\"?><toto>\u00e9t\u00e9</toto>";
+        for (String encoding : new String[] { "UTF-8", "UTF-16" }) {
+            byte[] bytes = xmlMessage.replace("UTF-16", encoding).getBytes(encoding);
+            if (encoding.equals("UTF-8")) {
+                byte[] withBom = new byte[bytes.length + 3];
+                withBom[0] = (byte) 0xEF;
+                withBom[1] = (byte) 0xBB;
+                withBom[2] = (byte) 0xBF;
+                System.arraycopy(bytes, 0, withBom, 3, bytes.length);
+                bytes = withBom;
+            }
+
+            String sourceAsString = SourceHelper.toString(new StreamSource(new ByteArrayInputStream(bytes)));
+            assertEquals("<?xml version=\"1.0\"?><toto>\u00e9t\u00e9</toto>", sourceAsString);
+            // the String can be parsed again
+            SourceHelper.toDocument(new StreamSource(new StringReader(sourceAsString)));
+        }
+    }
+
+    @Test
+    public void testLittleEndianStreamSourceWithDeclaredEncodingToString() throws Exception {
+        String xmlMessage = "<?xml version=\"1.0\" encoding=\"UTF-16\"?><toto>\u00e9t\u00e9</toto>";
+        // with and without byte order mark
+        for (String content : new String[] { "\ufeff" + xmlMessage, xmlMessage }) {
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_16LE);
+            InputSource inputSource = new InputSource(new ByteArrayInputStream(bytes));
+            inputSource.setEncoding("UTF-16");
+
+            // the byte order of the first bytes is kept with the encoding of the source or of the declaration
+            assertEquals("<?xml version=\"1.0\"?><toto>\u00e9t\u00e9</toto>",
+                    SourceHelper.toString(new SAXSource(inputSource)));
+            assertEquals("<?xml version=\"1.0\"?><toto>\u00e9t\u00e9</toto>",
+                    SourceHelper.toString(new StreamSource(new ByteArrayInputStream(bytes))));
+        }
+    }
+
+    @Test(expected = TransformerException.class)
+    public void testStreamSourceWithInconsistentEncodingToString() throws Exception {
+        byte[] bytes = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><toto/>".getBytes(StandardCharsets.UTF_16LE);
+        SourceHelper.toString(new StreamSource(new ByteArrayInputStream(bytes)));
+    }
+
     @Test(expected = TransformerException.class)
     public void testMalformedStreamSourceToString() throws Exception {
         String xmlMessage = "<tot";
@@ -136,6 +223,32 @@ public class SourceHelperTest {
         }
     }
 
+    @Test
+    public void testForkBufferedStAXSource() throws Exception {
+        for (String xmlMessage : new String[] { "<toto></toto>",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><toto></toto>",
+                "<a:toto xmlns:a=\"urn:a\" xmlns=\"urn:b\" a:att=\"1\"><titi att=\"2\">text</titi><?pi data?></a:toto>" }) {
+            StAXSource source = SourceHelper.toBufferedStAXSource(new StAXSource(
+                    XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xmlMessage))));
+
+            Source forkedSource = SourceHelper.fork(source);
+            Source forkedSource2 = SourceHelper.fork(forkedSource);
+            assertTrue(XMLComparator.isEquivalent(xmlMessage, SourceHelper.toString(forkedSource)));
+            assertTrue(XMLComparator.isEquivalent(xmlMessage, new String(SourceHelper.toByteArray(forkedSource2), "UTF-8")));
+            assertTrue(XMLComparator.isEquivalent(xmlMessage, SourceHelper.toString(source)));
+        }
+    }
+
+    @Test
+    public void testBufferedStAXEventSource() throws Exception {
+        String xmlMessage = "<a:toto xmlns:a=\"urn:a\"><a:titi a:att=\"1\">text</a:titi></a:toto>";
+        StAXSource source = SourceHelper.toBufferedStAXSource(new StAXSource(
+                XMLInputFactory.newInstance().createXMLEventReader(new StringReader(xmlMessage))));
+
+        assertTrue(XMLComparator.isEquivalent(xmlMessage, new String(SourceHelper.toByteArray(SourceHelper.fork(source)), "UTF-8")));
+        assertTrue(XMLComparator.isEquivalent(xmlMessage, SourceHelper.toString(source)));
+    }
+
     public void testForkMalformedStreamSource() throws TransformerException, IOException {
         String xmlMessage = "<tot";
         ByteArrayInputStream bais = new ByteArrayInputStream(xmlMessage.getBytes());
@@ -175,6 +288,36 @@ public class SourceHelperTest {
         Assert.assertNotNull(is);
     }
 
+    @Test
+    public void testSourceToInputStreamAboveThreshold() throws Exception {
+        for (String xmlMessage : new String[] { "<toto></toto>",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><toto></toto>" }) {
+            for (Source source : newTestSources(xmlMessage)) {
+                InputStream is = SourceHelper.toInputStream(source, 0);
+                try {
+                    assertTrue(XMLComparator.isEquivalent(xmlMessage, StreamHelper.getString(is)));
+                } finally {
+                    is.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInputSourceToDOMSource() throws Exception {
+        String xmlMessage = "<toto xmlns=\"urn:toto\">a<![CDATA[b]]>c</toto>";
+
+        DOMSource source = SourceHelper.toDOMSource(new InputSource(new StringReader(xmlMessage)));
+        assertEquals("urn:toto", ((Document) source.getNode()).getDocumentElement().getNamespaceURI());
+        assertEquals(3, ((Document) source.getNode()).getDocumentElement().getChildNodes().getLength());
+
+        source = SourceHelper.toDOMSource(new InputSource(new StringReader(xmlMessage)),
+                DocumentBuilderFeature.COALESCING, DocumentBuilderFeature.SECURE_PROCESSING);
+        assertEquals("urn:toto", ((Document) source.getNode()).getDocumentElement().getNamespaceURI());
+        assertEquals(1, ((Document) source.getNode()).getDocumentElement().getChildNodes().getLength());
+        assertEquals("abc", ((Document) source.getNode()).getDocumentElement().getTextContent());
+    }
+
     @Test
     public void testSourceToByteArray() throws Exception {
         for (String xmlMessage : new String[] { "<toto></toto>",
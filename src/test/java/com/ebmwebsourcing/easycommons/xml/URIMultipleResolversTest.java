@@ -19,8 +19,17 @@ import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -54,6 +63,39 @@ public class URIMultipleResolversTest {
     }
 
 
+    @Test(timeout = 30000)
+    public void testResolverSharedByInstancesSerialized() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        URIResolver resolver = new URIResolver() {
+            @Override
+            public Source resolve(String href, String base) {
+                final int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                Thread.yield();
+                running.decrementAndGet();
+                return new StreamSource(href);
+            }
+        };
+        final URIMultipleResolvers[] multipleResolvers = { new URIMultipleResolvers(resolver),
+                new URIMultipleResolvers(resolver) };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Source>> results = new ArrayList<Future<Source>>();
+            for (int i = 0; i < 1000; i++) {
+                final URIMultipleResolvers multipleResolver = multipleResolvers[i % 2];
+                results.add(executor.submit(() -> multipleResolver.resolve("test.xml", null)));
+            }
+            for (Future<Source> result : results) {
+                Assert.assertNotNull(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, maxRunning.get());
+    }
+
     @Test
     public void testSpace() throws URISyntaxException, TransformerException {
         File f = new File("./src/test/resources/petals link/");
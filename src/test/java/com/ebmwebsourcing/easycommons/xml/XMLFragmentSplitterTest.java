@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+public class XMLFragmentSplitterTest {
+
+    private static final String NS = "urn:batch";
+
+    private static final String DOCUMENT = "<b:batch xmlns:b=\"" + NS + "\" xmlns:x=\"urn:x\">"
+            + "<b:header><b:record id=\"ignored\"/></b:header>"
+            + "<b:record id=\"1\" x:type=\"a\"><value>one</value><!-- comment --></b:record>"
+            + "<other><b:record id=\"ignored\"/></other>"
+            + "<b:record id=\"2\" xmlns=\"urn:default\"><value><![CDATA[two]]></value></b:record>"
+            + "</b:batch>";
+
+    private static InputStream input() {
+        return new ByteArrayInputStream(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertRecord(Document document, String id, String value, String valueNamespace) {
+        Element record = document.getDocumentElement();
+        assertEquals(NS, record.getNamespaceURI());
+        assertEquals("record", record.getLocalName());
+        assertEquals(id, record.getAttribute("id"));
+        Element valueElement = (Element) record.getElementsByTagNameNS(valueNamespace == null ? "" : valueNamespace,
+                "value").item(0);
+        assertEquals(value, valueElement.getTextContent());
+        // the namespaces of the ancestors are declared on the fragment
+        assertEquals("urn:x", record.lookupNamespaceURI("x"));
+    }
+
+    @Test
+    public void testSplitAsDocuments() throws XMLStreamException {
+        try (XMLFragmentSplitter splitter = new XMLFragmentSplitter(input(), new QName(NS, "batch"),
+                new QName(NS, "record"))) {
+            assertTrue(splitter.hasNext());
+            Document first = splitter.nextDocument();
+            assertRecord(first, "1", "one", null);
+            assertEquals("a", first.getDocumentElement().getAttributeNS("urn:x", "type"));
+
+            assertRecord(splitter.nextDocument(), "2", "two", "urn:default");
+            assertFalse(splitter.hasNext());
+        }
+    }
+
+    @Test
+    public void testSplitAsSources() throws Exception {
+        int count = 0;
+        try (XMLFragmentSplitter splitter = new XMLFragmentSplitter(input(), new QName(NS, "batch"),
+                new QName(NS, "record"))) {
+            while (splitter.hasNext()) {
+                Source source = splitter.nextSource();
+                Document document = DocumentBuilders
+                        .parse(new InputSource(((StreamSource) source).getInputStream()));
+                count++;
+                assertRecord(document, String.valueOf(count), count == 1 ? "one" : "two",
+                        count == 1 ? null : "urn:default");
+            }
+        }
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void testManyRecords() throws XMLStreamException {
+        StringBuilder batch = new StringBuilder("<batch>");
+        for (int i = 0; i < 10000; i++) {
+            batch.append("<record>").append(i).append("</record>");
+        }
+        batch.append("</batch>");
+
+        int count = 0;
+        try (XMLFragmentSplitter splitter = new XMLFragmentSplitter(
+                new ByteArrayInputStream(batch.toString().getBytes(StandardCharsets.UTF_8)), new QName("batch"),
+                new QName("record"))) {
+            while (splitter.hasNext()) {
+                assertEquals(String.valueOf(count++), splitter.nextDocument().getDocumentElement().getTextContent());
+            }
+        }
+        assertEquals(10000, count);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class XMLInputFactoriesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.CHARACTERS) {
+                text.append(reader.getText());
+            }
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testOpenXMLStreamReaderFromBytes() throws XMLStreamException {
+        byte[] bytes = "--<root>first</root>--<root>second</root>".getBytes(StandardCharsets.UTF_8);
+
+        try (PooledXMLStreamReader reader = XMLInputFactories.openXMLStreamReader(bytes, 2, 18)) {
+            assertEquals("first", readText(reader));
+        }
+        try (PooledXMLStreamReader reader = XMLInputFactories.openXMLStreamReader(bytes, 22, 19)) {
+            assertEquals("second", readText(reader));
+        }
+    }
+
+    @Test
+    public void testPooledFactoryDoesNotReuseReaders() throws XMLStreamException {
+        XMLInputFactory xmlInputFactory = XMLInputFactories.takeXMLInputFactory();
+        try {
+            XMLStreamReader first = xmlInputFactory.createXMLStreamReader(new StringReader("<root/>"));
+            first.close();
+            XMLStreamReader second = xmlInputFactory.createXMLStreamReader(new StringReader("<root/>"));
+            second.close();
+            // the reader reuse is only enabled for the readers opened by XMLInputFactories
+            assertNotSame(first, second);
+        } finally {
+            XMLInputFactories.releaseXMLInputFactory(xmlInputFactory);
+        }
+    }
+
+    @Test
+    public void testCloseClosedReader() throws XMLStreamException {
+        PooledXMLStreamReader reader = XMLInputFactories
+                .openXMLStreamReader("<root>text</root>".getBytes(StandardCharsets.UTF_8));
+        assertEquals("text", readText(reader));
+        reader.close();
+        // closing a closed reader does nothing
+        reader.close();
+    }
+
+    @Test
+    public void testOpenXMLStreamReaderFromReaderAndSource() throws XMLStreamException {
+        try (PooledXMLStreamReader reader = XMLInputFactories.openXMLStreamReader(new StringReader(
+                "<root>text</root>"))) {
+            assertEquals("text", readText(reader));
+        }
+        try (PooledXMLStreamReader reader = XMLInputFactories.openXMLStreamReader(new StreamSource(
+                new StringReader("<root>source</root>")))) {
+            assertEquals("source", readText(reader));
+        }
+    }
+
+    @Test
+    public void testSharedFactories() {
+        XMLInputFactory defaultFactory = XMLInputFactories.getXMLInputFactory();
+        assertSame(defaultFactory, XMLInputFactories.getXMLInputFactory());
+
+        XMLInputFactory coalescingFactory = XMLInputFactories
+                .getXMLInputFactory(Collections.singletonMap(XMLInputFactory.IS_COALESCING, Boolean.TRUE));
+        assertNotSame(defaultFactory, coalescingFactory);
+        assertSame(coalescingFactory, XMLInputFactories
+                .getXMLInputFactory(Collections.singletonMap(XMLInputFactory.IS_COALESCING, Boolean.TRUE)));
+        assertEquals(Boolean.TRUE, coalescingFactory.getProperty(XMLInputFactory.IS_COALESCING));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedFactoryCannotBeConfigured() {
+        XMLInputFactories.getXMLInputFactory().setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    @Test
+    public void testOpenFile() throws IOException, XMLStreamException {
+        // a small file is read, a big one is mapped
+        for (int size : new int[] { 10, 100000 }) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                text.append((char) ('a' + i % 26));
+            }
+            File file = this.folder.newFile();
+            Files.write(file.toPath(), ("<root>" + text + "</root>").getBytes(StandardCharsets.UTF_8));
+
+            try (PooledXMLStreamReader reader = XMLInputFactories.openXMLStreamReader(file.toPath())) {
+                assertEquals(text.toString(), readText(reader));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class XMLOutputFactoriesTest {
+
+    private static class CloseCheckingOutputStream extends ByteArrayOutputStream {
+
+        private boolean closed = false;
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    @Test
+    public void testOpenXMLStreamWriterToOutputStream() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+
+        for (int i = 0; i < 2; i++) {
+            CloseCheckingOutputStream outputStream = new CloseCheckingOutputStream();
+            try (PooledXMLStreamWriter writer = XMLOutputFactories.openXMLStreamWriter(outputStream, "UTF-8")) {
+                writer.writeStartElement("root");
+                writer.writeAttribute("index", String.valueOf(i));
+                writer.writeCharacters(text.toString());
+                writer.writeEndElement();
+            }
+            assertEquals("<root index=\"" + i + "\">" + text + "</root>",
+                    new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+            assertFalse(outputStream.closed);
+        }
+    }
+
+    @Test
+    public void testCloseClosedWriter() throws XMLStreamException {
+        CloseCheckingOutputStream outputStream = new CloseCheckingOutputStream();
+        PooledXMLStreamWriter writer = XMLOutputFactories.openXMLStreamWriter(outputStream, "UTF-8");
+        writer.writeEmptyElement("root");
+        writer.writeEndDocument();
+        writer.close();
+        // closing a closed writer does nothing
+        writer.close();
+        assertEquals("<root/>", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertFalse(outputStream.closed);
+    }
+
+    @Test
+    public void testNestedWritersOfSameThread() throws XMLStreamException {
+        ByteArrayOutputStream outer = new ByteArrayOutputStream();
+        ByteArrayOutputStream inner = new ByteArrayOutputStream();
+        try (PooledXMLStreamWriter outerWriter = XMLOutputFactories.openXMLStreamWriter(outer)) {
+            outerWriter.writeEmptyElement("outer");
+            outerWriter.writeEndDocument();
+            try (PooledXMLStreamWriter innerWriter = XMLOutputFactories.openXMLStreamWriter(inner)) {
+                innerWriter.writeEmptyElement("inner");
+                innerWriter.writeEndDocument();
+            }
+        }
+        assertEquals("<outer/>", outer.toString());
+        assertEquals("<inner/>", inner.toString());
+
+        StringWriter stringWriter = new StringWriter();
+        try (PooledXMLStreamWriter writer = XMLOutputFactories.openXMLStreamWriter(stringWriter)) {
+            writer.writeEmptyElement("root");
+            writer.writeEndDocument();
+        }
+        assertEquals("<root/>", stringWriter.toString());
+    }
+
+    @Test
+    public void testSharedFactories() {
+        XMLOutputFactory defaultFactory = XMLOutputFactories.getXMLOutputFactory();
+        assertSame(defaultFactory, XMLOutputFactories.getXMLOutputFactory());
+
+        XMLOutputFactory repairingFactory = XMLOutputFactories.getXMLOutputFactory(
+                Collections.singletonMap(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE));
+        assertNotSame(defaultFactory, repairingFactory);
+        assertSame(repairingFactory, XMLOutputFactories.getXMLOutputFactory(
+                Collections.singletonMap(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE)));
+        assertEquals(Boolean.TRUE, repairingFactory.getProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedFactoryCannotBeConfigured() {
+        XMLOutputFactories.getXMLOutputFactory().setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES,
+                Boolean.TRUE);
+    }
+}
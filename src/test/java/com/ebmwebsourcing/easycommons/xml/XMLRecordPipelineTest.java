@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2010-2012 EBM WebSourcing, 2012-2023 Linagora
+ * 
+ * This program/library is free software: you can redistribute it and/or modify
+ * it under the terms of the New BSD License (3-clause license).
+ *
+ * This program/library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the New BSD License (3-clause license)
+ * for more details.
+ *
+ * You should have received a copy of the New BSD License (3-clause license)
+ * along with this program/library; If not, see http://directory.fsf.org/wiki/License:BSD_3Clause/
+ * for the New BSD License (3-clause license).
+ */
+package com.ebmwebsourcing.easycommons.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class XMLRecordPipelineTest {
+
+    private static final int RECORDS = 1000;
+
+    private ExecutorService executor;
+
+    // the records parsed but not delivered yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private static XMLFragmentSplitter newSplitter() throws XMLStreamException {
+        StringBuilder batch = new StringBuilder("<batch>");
+        for (int i = 0; i < RECORDS; i++) {
+            batch.append("<record>").append(i).append("</record>");
+        }
+        batch.append("</batch>");
+        return new XMLFragmentSplitter(new ByteArrayInputStream(batch.toString().getBytes(StandardCharsets.UTF_8)),
+                new QName("batch"), new QName("record"));
+    }
+
+    private Integer process(Document record) {
+        this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Integer.valueOf(record.getDocumentElement().getTextContent());
+    }
+
+    private List<Integer> run(boolean ordered) throws XMLStreamException {
+        XMLRecordPipeline<Integer> pipeline = new XMLRecordPipeline<Integer>(this::process, this.executor, 16,
+                ordered);
+        List<Integer> results = new ArrayList<Integer>();
+        try (XMLFragmentSplitter splitter = newSplitter()) {
+            assertEquals(RECORDS, pipeline.run(splitter, result -> {
+                this.inFlight.decrementAndGet();
+                results.add(result);
+            }));
+        }
+        assertTrue(this.maxInFlight.get() <= 16);
+        return results;
+    }
+
+    @Test(timeout = 30000)
+    public void testOrderedDelivery() throws XMLStreamException {
+        List<Integer> results = this.run(true);
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals(i, results.get(i).intValue());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testUnorderedDelivery() throws XMLStreamException {
+        List<Integer> results = this.run(false);
+        Collections.sort(results);
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals(i, results.get(i).intValue());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testProcessingFailure() throws XMLStreamException {
+        Function<Document, Integer> failing = record -> {
+            int value = Integer.parseInt(record.getDocumentElement().getTextContent());
+            if (value == 100) {
+                throw new IllegalStateException("record " + value);
+            }
+            return value;
+        };
+        XMLRecordPipeline<Integer> pipeline = new XMLRecordPipeline<Integer>(failing, this.executor, 8, true);
+        AtomicInteger delivered = new AtomicInteger();
+        try (XMLFragmentSplitter splitter = newSplitter()) {
+            pipeline.run(splitter, result -> delivered.incrementAndGet());
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("record 100", e.getMessage());
+        }
+        assertEquals(100, delivered.get());
+    }
+}
@@ -17,12 +17,30 @@ package com.ebmwebsourcing.easycommons.xml;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.Test;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
@@ -34,6 +52,8 @@ public class XmlPrettyPrinterTest {
     public static Logger log = Logger.getLogger(XmlPrettyPrinterTest.class
             .getName());
 
+    private static final String PRETTY_PRINT_EVENT = "com.ebmwebsourcing.easycommons.PrettyPrint";
+
     private static final DocumentBuilderFactory factory = DocumentBuilderFactory
             .newInstance();
 
@@ -54,4 +74,73 @@ public class XmlPrettyPrinterTest {
         assertNotNull(res);
     }
 
+
+    @Test
+    public void testPrettyPrintEvent() throws SAXException, IOException, ParserConfigurationException,
+            TransformerException {
+        Document doc = factory.newDocumentBuilder().parse(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream("test.xml"));
+        Path file = Files.createTempFile("prettyPrint", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(PRETTY_PRINT_EVENT);
+            recording.start();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLPrettyPrinter.prettify(new DOMSource(doc), out);
+
+            recording.stop();
+            List<RecordedEvent> events = readEvents(recording, file);
+            assertEquals(1, events.size());
+            assertEquals(out.size(), events.get(0).getLong("payloadSize"));
+            assertEquals(DOMSource.class.getName(), events.get(0).getString("sourceType"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testPrettyPrintEventNotRecordedWhenEnabledDuringTheRun() throws IOException, TransformerException {
+        byte[] xml = "<root><child/></root>".getBytes(StandardCharsets.UTF_8);
+        Path file = Files.createTempFile("prettyPrint", ".jfr");
+        try (final Recording recording = new Recording()) {
+            recording.enable(PRETTY_PRINT_EVENT);
+
+            // the recording starts when the source is first read
+            InputStream in = new FilterInputStream(new ByteArrayInputStream(xml)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (recording.getState() == RecordingState.NEW) {
+                        recording.start();
+                    }
+                    return super.read(b, off, len);
+                }
+            };
+            XMLPrettyPrinter.prettify(new StreamSource(in), new ByteArrayOutputStream());
+
+            // the recording is now enabled at the start of the run
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLPrettyPrinter.prettify(new StreamSource(new ByteArrayInputStream(xml)), out);
+
+            recording.stop();
+            List<RecordedEvent> events = readEvents(recording, file);
+            assertEquals(1, events.size());
+            assertEquals(out.size(), events.get(0).getLong("payloadSize"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * The custom events are enabled by default, so the recording may also contain the pool events
+     */
+    private static List<RecordedEvent> readEvents(Recording recording, Path file) throws IOException {
+        recording.dump(file);
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (PRETTY_PRINT_EVENT.equals(event.getEventType().getName())) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
 }